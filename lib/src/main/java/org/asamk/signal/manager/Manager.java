@@ -1,7 +1,11 @@
 package org.asamk.signal.manager;
 
+import org.asamk.signal.manager.api.ActionQueueStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.AttachmentReady;
+import org.asamk.signal.manager.api.BatchMessage;
+import org.asamk.signal.manager.api.CacheStats;
 import org.asamk.signal.manager.api.CaptchaRequiredException;
 import org.asamk.signal.manager.api.Configuration;
 import org.asamk.signal.manager.api.Device;
@@ -19,6 +23,7 @@ import org.asamk.signal.manager.api.InvalidDeviceLinkException;
 import org.asamk.signal.manager.api.InvalidStickerException;
 import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
+import org.asamk.signal.manager.api.LatencyStats;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.NonNormalizedPhoneNumberException;
@@ -27,12 +32,16 @@ import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PendingAdminApprovalException;
 import org.asamk.signal.manager.api.PinLockedException;
+import org.asamk.signal.manager.api.PrepareRecipientsResult;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveHandlerStats;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.SendPriority;
+import org.asamk.signal.manager.api.SendQueueStats;
 import org.asamk.signal.manager.api.StickerPack;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
 import org.asamk.signal.manager.api.StickerPackUrl;
@@ -172,10 +181,35 @@ public interface Manager extends Closeable {
             RecipientIdentifier.Single sender, List<Long> messageIds
     );
 
-    SendMessageResults sendMessage(
+    default SendMessageResults sendMessage(
             Message message, Set<RecipientIdentifier> recipients
+    ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
+        return sendMessage(message, recipients, SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * Send a message, waiting for messages with higher priority and for the configured send rate limit.
+     * If the server rate limits the message for all recipients, it's retried after the server's retry-after time.
+     */
+    SendMessageResults sendMessage(
+            Message message, Set<RecipientIdentifier> recipients, SendPriority priority
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException;
 
+    /**
+     * Send each message of the batch to its own recipient.
+     * Attachments are uploaded only once for the whole batch and the messages are sent concurrently.
+     * The listener is called for each message as soon as it has been sent, possibly from multiple threads.
+     */
+    void sendMessageBatch(
+            List<BatchMessage> messages, SendPriority priority, BatchSendListener listener
+    ) throws IOException, AttachmentInvalidException;
+
+    /**
+     * Look up the given recipients and establish sessions with those that don't have one yet, so sending the first
+     * message to them afterwards doesn't need to fetch their pre keys.
+     */
+    PrepareRecipientsResult prepareRecipients(Set<RecipientIdentifier.Single> recipients) throws IOException;
+
     SendMessageResults sendEditMessage(
             Message message, Set<RecipientIdentifier> recipients, long editTargetTimestamp
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException;
@@ -254,6 +288,36 @@ public interface Manager extends Closeable {
      */
     void removeReceiveHandler(ReceiveMessageHandler handler);
 
+    /**
+     * Get the delivery queue statistics of the registered receive handlers.
+     */
+    List<ReceiveHandlerStats> getReceiveHandlerStats();
+
+    /**
+     * Get the latency distributions of the stages of the receive path.
+     */
+    List<LatencyStats> getReceiveLatencyStats();
+
+    /**
+     * Get the number of envelopes that were delivered again by the server and skipped.
+     */
+    long getDuplicateEnvelopeCount();
+
+    /**
+     * Get the depth of the queue of actions resulting from received messages and how often it was full.
+     */
+    ActionQueueStats getActionQueueStats();
+
+    /**
+     * Get the queue depths and wait times of outgoing messages, per priority.
+     */
+    List<SendQueueStats> getSendQueueStats();
+
+    /**
+     * Get the hit rates of the internal caches.
+     */
+    List<CacheStats> getCacheStats();
+
     boolean isReceiving();
 
     /**
@@ -267,6 +331,14 @@ public interface Manager extends Closeable {
 
     void setReceiveConfig(ReceiveConfig receiveConfig);
 
+    /**
+     * Add a handler that is notified when a deferred attachment download has finished.
+     * Attachment downloads are only deferred if enabled in the receive config.
+     */
+    void addAttachmentReadyHandler(AttachmentReadyHandler handler);
+
+    void removeAttachmentReadyHandler(AttachmentReadyHandler handler);
+
     boolean isContactBlocked(RecipientIdentifier.Single recipient);
 
     void sendContacts() throws IOException;
@@ -318,6 +390,18 @@ public interface Manager extends Closeable {
 
         void handleMessage(MessageEnvelope envelope, Throwable e);
     }
+
+    interface AttachmentReadyHandler {
+
+        void handleAttachmentReady(AttachmentReady attachmentReady);
+    }
+
+    interface BatchSendListener {
+
+        void onSent(int index, SendMessageResults results);
+
+        void onFailed(int index, Exception e);
+    }
     
     SignalAccount getAccount();
 }
@@ -1,8 +1,26 @@
 package org.asamk.signal.manager;
 
+import org.asamk.signal.manager.api.DatabaseProfile;
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.TrustNewIdentity;
 
-public record Settings(TrustNewIdentity trustNewIdentity, boolean disableMessageSendLog) {
+public record Settings(
+        TrustNewIdentity trustNewIdentity,
+        boolean disableMessageSendLog,
+        MessageCacheType messageCacheType,
+        int legacySendConcurrency,
+        int sendRateLimit,
+        int attachmentUploadThreads,
+        DatabaseProfile databaseProfile,
+        int sessionCacheSize
+) {
 
-    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE, false);
+    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE,
+            false,
+            MessageCacheType.FILE,
+            1,
+            0,
+            4,
+            DatabaseProfile.DEFAULT,
+            10_000);
 }
@@ -0,0 +1,11 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Statistics of the queue of actions resulting from received messages, e.g. sending receipts or retrieving profiles.
+ *
+ * @param queued   actions currently waiting to be executed
+ * @param executed actions executed so far
+ * @param merged   actions that were merged into an equal action that was already queued
+ * @param blocked  actions that had to wait, because the queue was full
+ */
+public record ActionQueueStats(int queued, long executed, long merged, long blocked) {}
@@ -0,0 +1,12 @@
+package org.asamk.signal.manager.api;
+
+import java.io.File;
+
+/**
+ * Signals that a deferred attachment download has finished.
+ *
+ * @param id         the attachment id, as used in the attachments of the received message
+ * @param file       the file in the attachment store
+ * @param downloaded false if the download failed and the file is not available
+ */
+public record AttachmentReady(String id, File file, boolean downloaded) {}
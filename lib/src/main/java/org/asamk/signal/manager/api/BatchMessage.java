@@ -0,0 +1,6 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * A message of a batch, that is sent to a single recipient or group.
+ */
+public record BatchMessage(RecipientIdentifier recipient, Message message) {}
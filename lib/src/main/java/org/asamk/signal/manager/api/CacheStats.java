@@ -0,0 +1,15 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Hit statistics of an in-memory cache.
+ *
+ * @param evictions number of entries dropped, because the cache was full or they expired
+ * @param size      number of entries currently cached
+ */
+public record CacheStats(String name, long hits, long misses, long invalidations, long evictions, int size) {
+
+    public double hitRate() {
+        final var total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
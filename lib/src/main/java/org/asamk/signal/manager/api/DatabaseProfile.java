@@ -0,0 +1,13 @@
+package org.asamk.signal.manager.api;
+
+public enum DatabaseProfile {
+    /**
+     * SQLite defaults: rollback journal and a full sync on every commit.
+     */
+    DEFAULT,
+    /**
+     * Write-ahead log with synchronous=NORMAL, memory mapped reads and a larger page cache.
+     * A commit may be lost on power failure, but the database can't become corrupted.
+     */
+    PERFORMANCE,
+}
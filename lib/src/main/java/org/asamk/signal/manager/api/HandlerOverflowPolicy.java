@@ -0,0 +1,19 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * What to do when a receive handler doesn't keep up and its delivery queue is full.
+ */
+public enum HandlerOverflowPolicy {
+    /**
+     * Wait until the handler has made room, this slows down receiving for all handlers.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued message for this handler.
+     */
+    DROP_OLDEST,
+    /**
+     * Remove the handler, it won't receive further messages.
+     */
+    DISCONNECT,
+}
@@ -0,0 +1,18 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Latency distribution of one stage of the receive path, all durations in milliseconds.
+ *
+ * @param stage the name of the measured stage
+ * @param count number of recorded envelopes
+ */
+public record LatencyStats(
+        String stage,
+        long count,
+        double meanMillis,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        double p999Millis,
+        double maxMillis
+) {}
@@ -0,0 +1,6 @@
+package org.asamk.signal.manager.api;
+
+public enum MessageCacheType {
+    FILE,
+    SEGMENT_LOG,
+}
@@ -0,0 +1,13 @@
+package org.asamk.signal.manager.api;
+
+import java.util.List;
+
+/**
+ * @param unregistered     recipients that aren't registered and can't receive messages
+ * @param sessionsCreated  number of recipients for which new sessions have been established
+ * @param sessionsExisting number of recipients that already had a session
+ * @param failed           number of recipients for which establishing a session failed
+ */
+public record PrepareRecipientsResult(
+        List<RecipientIdentifier.Single> unregistered, int sessionsCreated, int sessionsExisting, int failed
+) {}
@@ -1,3 +1,16 @@
 package org.asamk.signal.manager.api;
 
-public record ReceiveConfig(boolean ignoreAttachments, boolean ignoreStories, boolean sendReadReceipts) {}
+public record ReceiveConfig(
+        boolean ignoreAttachments,
+        boolean ignoreStories,
+        boolean sendReadReceipts,
+        int batchSize,
+        int receiveLanes,
+        int attachmentDownloadThreads,
+        boolean deferAttachmentDownloads,
+        int handlerQueueSize,
+        HandlerOverflowPolicy handlerOverflowPolicy
+) {
+
+    public static final int DEFAULT_ATTACHMENT_DOWNLOAD_THREADS = 4;
+}
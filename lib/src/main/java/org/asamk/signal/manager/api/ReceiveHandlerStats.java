@@ -0,0 +1,12 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Delivery statistics of a registered receive handler.
+ *
+ * @param handler   the handler class name
+ * @param queued    messages waiting to be delivered to the handler
+ * @param delivered messages delivered to the handler
+ * @param dropped   messages dropped because the handler's queue was full
+ * @param lagMillis time the oldest queued message has been waiting, 0 if the queue is empty
+ */
+public record ReceiveHandlerStats(String handler, int queued, long delivered, long dropped, long lagMillis) {}
@@ -2,6 +2,7 @@ package org.asamk.signal.manager.api;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public record SendMessageResults(long timestamp, Map<RecipientIdentifier, List<SendMessageResult>> results) {
 
@@ -20,6 +21,20 @@ public record SendMessageResults(long timestamp, Map<RecipientIdentifier, List<S
                 && results.values().stream().mapToInt(List::size).sum() > 0;
     }
 
+    public boolean hasRateLimitFailure() {
+        return results.values()
+                .stream()
+                .flatMap(res -> res.stream().map(SendMessageResult::isRateLimitFailure))
+                .anyMatch(r -> r);
+    }
+
+    public boolean hasProofRequiredFailure() {
+        return results.values()
+                .stream()
+                .flatMap(res -> res.stream().map(SendMessageResult::proofRequiredFailure))
+                .anyMatch(Objects::nonNull);
+    }
+
     public boolean hasOnlyRateLimitFailure() {
         return results.values()
                 .stream()
@@ -0,0 +1,10 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Order in which queued outgoing messages are sent, when sending is paced or paused due to rate limiting.
+ */
+public enum SendPriority {
+    INTERACTIVE,
+    BULK,
+    BACKGROUND,
+}
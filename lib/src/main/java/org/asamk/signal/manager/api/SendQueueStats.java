@@ -0,0 +1,14 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * Statistics of the outgoing messages of one priority.
+ *
+ * @param queued        sends currently waiting to be admitted
+ * @param sent          sends admitted so far
+ * @param rateLimited   sends that were rate limited by the server
+ * @param proofRequired sends that were rejected until a challenge is solved, e.g. a captcha
+ * @param waitTime      time the admitted sends had to wait
+ */
+public record SendQueueStats(
+        SendPriority priority, int queued, long sent, long rateLimited, long proofRequired, LatencyStats waitTime
+) {}
@@ -1,18 +1,26 @@
 package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.AttachmentReady;
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.AttachmentStore;
+import org.asamk.signal.manager.storage.attachments.AttachmentUploadStore;
 import org.asamk.signal.manager.util.AttachmentUtils;
 import org.asamk.signal.manager.util.IOUtils;
+import org.asamk.signal.manager.util.Utils;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.InvalidMessageStructureException;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentRemoteId;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentStream;
 import org.whispersystems.signalservice.api.push.exceptions.MissingConfigurationException;
+import org.whispersystems.signalservice.api.util.AttachmentPointerUtil;
 import org.whispersystems.signalservice.api.util.StreamDetails;
 
 import java.io.File;
@@ -20,19 +28,74 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class AttachmentHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(AttachmentHelper.class);
+    // Uploads stay on the CDN for a while longer, but recipients may only download them later
+    private static final Duration UPLOAD_REUSE_DURATION = Duration.ofDays(3);
 
     private final SignalDependencies dependencies;
     private final AttachmentStore attachmentStore;
+    private final AttachmentUploadStore uploadStore;
+    private final int uploadThreads;
+    private final Map<SignalServiceAttachmentRemoteId, CompletableFuture<Boolean>> pendingDownloads = new ConcurrentHashMap<>();
+
+    private int downloadThreads = ReceiveConfig.DEFAULT_ATTACHMENT_DOWNLOAD_THREADS;
+    private boolean deferDownloads = false;
+    private ExecutorService downloadExecutor;
+    private ExecutorService uploadExecutor;
+    private Consumer<AttachmentReady> attachmentReadyListener;
 
     public AttachmentHelper(final Context context) {
         this.dependencies = context.getDependencies();
         this.attachmentStore = context.getAttachmentStore();
+        this.uploadStore = context.getAccount().getAttachmentUploadStore();
+        this.uploadThreads = context.getAccount().getSettings().attachmentUploadThreads();
+    }
+
+    public void setDownloadConfig(final int downloadThreads, final boolean deferDownloads) {
+        synchronized (this) {
+            final var threads = Math.max(1, downloadThreads);
+            if (downloadExecutor != null && threads != this.downloadThreads) {
+                downloadExecutor.shutdown();
+                downloadExecutor = null;
+            }
+            this.downloadThreads = threads;
+            this.deferDownloads = deferDownloads;
+        }
+    }
+
+    /**
+     * Stop the download and upload threads, once their queued tasks are done.
+     */
+    public synchronized void close() {
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdown();
+            downloadExecutor = null;
+        }
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdown();
+            uploadExecutor = null;
+        }
+    }
+
+    public void setAttachmentReadyListener(final Consumer<AttachmentReady> attachmentReadyListener) {
+        this.attachmentReadyListener = attachmentReadyListener;
     }
 
     public File getAttachmentFile(SignalServiceAttachmentPointer pointer) {
@@ -44,19 +107,150 @@ public class AttachmentHelper {
     }
 
     public List<SignalServiceAttachment> uploadAttachments(final List<String> attachments) throws AttachmentInvalidException, IOException {
-        var attachmentStreams = AttachmentUtils.createAttachmentStreams(attachments);
+        // Hash and open all attachments first, so invalid attachments are reported before anything is uploaded
+        final var preparedAttachments = new ArrayList<PreparedAttachment>(attachments.size());
+        try {
+            for (var attachment : attachments) {
+                preparedAttachments.add(prepareAttachment(attachment));
+            }
+        } catch (AttachmentInvalidException e) {
+            preparedAttachments.forEach(AttachmentHelper::closeAttachment);
+            throw e;
+        }
 
         // Upload attachments here, so we only upload once even for multiple recipients
-        var attachmentPointers = new ArrayList<SignalServiceAttachment>(attachmentStreams.size());
-        for (var attachmentStream : attachmentStreams) {
-            attachmentPointers.add(uploadAttachment(attachmentStream));
+        if (preparedAttachments.size() <= 1) {
+            return preparedAttachments.isEmpty()
+                    ? List.of()
+                    : List.of(uploadAttachment(preparedAttachments.getFirst()));
         }
-        return attachmentPointers;
+        final var uploadExecutor = getUploadExecutor();
+        final var uploads = new ArrayList<CompletableFuture<SignalServiceAttachmentPointer>>(attachments.size());
+        final var firstFailure = new CompletableFuture<SignalServiceAttachmentPointer>();
+        for (final var preparedAttachment : preparedAttachments) {
+            final var upload = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return uploadAttachment(preparedAttachment);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, uploadExecutor);
+            upload.whenComplete((pointer, e) -> {
+                if (e != null) {
+                    firstFailure.completeExceptionally(e);
+                }
+            });
+            uploads.add(upload);
+        }
+
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)), firstFailure)
+                    .join();
+        } catch (CompletionException e) {
+            // Uploads that haven't started yet are skipped, closing the streams aborts the running uploads
+            uploads.forEach(upload -> upload.cancel(false));
+            preparedAttachments.forEach(AttachmentHelper::closeAttachment);
+            final var cause = e.getCause();
+            switch (cause) {
+                case IOException ioException -> throw ioException;
+                case RuntimeException runtimeException -> throw runtimeException;
+                default -> throw new IOException(cause);
+            }
+        }
+        return uploads.stream().map(CompletableFuture::join).map(SignalServiceAttachment.class::cast).toList();
     }
 
     public SignalServiceAttachmentPointer uploadAttachment(String attachment) throws IOException, AttachmentInvalidException {
-        var attachmentStream = AttachmentUtils.createAttachmentStream(attachment);
-        return uploadAttachment(attachmentStream);
+        return uploadAttachment(prepareAttachment(attachment));
+    }
+
+    private SignalServiceAttachmentPointer uploadAttachment(final PreparedAttachment attachment) throws IOException {
+        final var attachmentStream = attachment.stream();
+        try {
+            final var previousUpload = getPreviousUpload(attachment);
+            if (previousUpload != null) {
+                return previousUpload;
+            }
+
+            final var pointer = uploadAttachment(attachmentStream);
+            // Stored with the digest of the uploaded content, in case the file changed after it was hashed
+            uploadStore.addUpload(attachment.digest().digest(),
+                    attachmentStream.getLength(),
+                    AttachmentPointerUtil.createAttachmentPointer(pointer),
+                    attachmentStream.getUploadTimestamp() + UPLOAD_REUSE_DURATION.toMillis());
+            return pointer;
+        } finally {
+            closeAttachment(attachment);
+        }
+    }
+
+    private SignalServiceAttachmentPointer getPreviousUpload(final PreparedAttachment attachment) {
+        final var contentHash = attachment.contentHash();
+        final var storedPointer = uploadStore.getUpload(contentHash.hash(), contentHash.size());
+        if (storedPointer.isEmpty()) {
+            return null;
+        }
+        // The file name and content type aren't part of the uploaded content, so they can differ between sends
+        final var pointer = storedPointer.get()
+                .newBuilder()
+                .fileName(attachment.stream().getFileName().orElse(null))
+                .contentType(attachment.stream().getContentType())
+                .build();
+        try {
+            final var attachmentPointer = AttachmentPointerUtil.createSignalAttachmentPointer(pointer);
+            logger.debug("Reusing previous upload {} for attachment", attachmentPointer.getRemoteId());
+            return attachmentPointer;
+        } catch (InvalidMessageStructureException e) {
+            logger.warn("Stored attachment upload is invalid, uploading again", e);
+            uploadStore.removeUpload(contentHash.hash(), contentHash.size());
+            return null;
+        }
+    }
+
+    private static PreparedAttachment prepareAttachment(final String attachment) throws AttachmentInvalidException {
+        final var contentHash = hashAttachment(attachment);
+        final Pair<StreamDetails, Optional<String>> streamDetails;
+        try {
+            streamDetails = Utils.createStreamDetails(attachment);
+        } catch (IOException e) {
+            throw new AttachmentInvalidException(attachment, e);
+        }
+        // The uploaded content is hashed as well, so it's stored with the right hash if the file changed meanwhile
+        final var digest = createDigest();
+        final var details = streamDetails.first();
+        final var digestDetails = new StreamDetails(new DigestInputStream(details.getStream(), digest),
+                details.getContentType(),
+                details.getLength());
+        return new PreparedAttachment(AttachmentUtils.createAttachmentStream(digestDetails, streamDetails.second()),
+                digest,
+                contentHash);
+    }
+
+    private static ContentHash hashAttachment(final String attachment) throws AttachmentInvalidException {
+        final var digest = createDigest();
+        try (final var stream = new DigestInputStream(Utils.createStreamDetails(attachment).first().getStream(),
+                digest)) {
+            final var size = stream.transferTo(OutputStream.nullOutputStream());
+            return new ContentHash(digest.digest(), size);
+        } catch (IOException e) {
+            throw new AttachmentInvalidException(attachment, e);
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeAttachment(final PreparedAttachment attachment) {
+        try {
+            attachment.stream().getInputStream().close();
+        } catch (IOException e) {
+            logger.debug("Failed to close attachment stream, ignoring: {}", e.getMessage());
+        }
     }
 
     public SignalServiceAttachmentPointer uploadAttachment(SignalServiceAttachmentStream attachment) throws IOException {
@@ -64,12 +258,78 @@ public class AttachmentHelper {
         return messageSender.uploadAttachment(attachment);
     }
 
+    /**
+     * Download the attachments in parallel.
+     * Unless downloads are deferred, this waits until all attachments are stored, otherwise an attachment ready
+     * event is sent for each attachment once it's done.
+     */
+    public void downloadAttachments(final List<SignalServiceAttachment> attachments) {
+        final var downloads = new ArrayList<CompletableFuture<Boolean>>(attachments.size());
+        final boolean deferred;
+        synchronized (this) {
+            deferred = deferDownloads;
+            for (final var attachment : attachments) {
+                if (!attachment.isPointer()) {
+                    logger.warn("Invalid state, can't store an attachment stream.");
+                    continue;
+                }
+                downloads.add(scheduleDownload(attachment.asPointer(), deferred));
+            }
+        }
+        if (!deferred) {
+            CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new)).join();
+        }
+    }
+
+    private CompletableFuture<Boolean> scheduleDownload(
+            final SignalServiceAttachmentPointer pointer, final boolean deferred
+    ) {
+        final var remoteId = pointer.getRemoteId();
+        final var existingDownload = pendingDownloads.get(remoteId);
+        if (existingDownload != null) {
+            logger.debug("Attachment {} is already being downloaded", remoteId);
+            return existingDownload;
+        }
+        final var download = CompletableFuture.<Boolean>supplyAsync(() -> downloadAttachment(pointer),
+                getDownloadExecutor());
+        pendingDownloads.put(remoteId, download);
+        download.whenComplete((downloaded, e) -> {
+            pendingDownloads.remove(remoteId);
+            final var listener = attachmentReadyListener;
+            if (deferred && listener != null) {
+                final var file = getAttachmentFile(pointer);
+                listener.accept(new AttachmentReady(file.getName(), file, Boolean.TRUE.equals(downloaded)));
+            }
+        });
+        return download;
+    }
+
+    private synchronized ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            uploadExecutor = Executors.newFixedThreadPool(Math.max(1, uploadThreads),
+                    Thread.ofPlatform().name("attachment-upload-", 0).daemon().factory());
+        }
+        return uploadExecutor;
+    }
+
+    private ExecutorService getDownloadExecutor() {
+        if (downloadExecutor == null) {
+            downloadExecutor = Executors.newFixedThreadPool(downloadThreads,
+                    Thread.ofPlatform().name("attachment-download-", 0).daemon().factory());
+        }
+        return downloadExecutor;
+    }
+
     public void downloadAttachment(final SignalServiceAttachment attachment) {
         if (!attachment.isPointer()) {
             logger.warn("Invalid state, can't store an attachment stream.");
+            return;
         }
+        downloadAttachment(attachment.asPointer());
+    }
+
+    private boolean downloadAttachment(final SignalServiceAttachmentPointer pointer) {
 
-        var pointer = attachment.asPointer();
         if (pointer.getPreview().isPresent()) {
             final var preview = pointer.getPreview().get();
             try {
@@ -81,9 +341,16 @@ public class AttachmentHelper {
         }
 
         try {
-            attachmentStore.storeAttachment(pointer, outputStream -> this.retrieveAttachment(pointer, outputStream));
+            attachmentStore.downloadAttachment(pointer, (downloadFile, outputStream) -> {
+                logger.debug("Retrieving attachment {} with size {}", pointer.getRemoteId(), pointer.getSize());
+                try (var input = retrieveAttachmentAsStream(pointer, downloadFile)) {
+                    input.transferTo(outputStream);
+                }
+            });
+            return true;
         } catch (IOException e) {
             logger.warn("Failed to download attachment ({}), ignoring: {}", pointer.getRemoteId(), e.getMessage());
+            return false;
         }
     }
 
@@ -133,4 +400,10 @@ public class AttachmentHelper {
 
         void handle(InputStream inputStream) throws IOException;
     }
+
+    private record PreparedAttachment(
+            SignalServiceAttachmentStream stream, MessageDigest digest, ContentHash contentHash
+    ) {}
+
+    private record ContentHash(byte[] hash, long size) {}
 }
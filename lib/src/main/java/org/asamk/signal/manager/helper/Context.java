@@ -1,7 +1,13 @@
 package org.asamk.signal.manager.helper;
 
+import org.asamk.signal.manager.internal.ActionExecutor;
 import org.asamk.signal.manager.internal.JobExecutor;
+import org.asamk.signal.manager.internal.ReceiptCoalescer;
+import org.asamk.signal.manager.internal.ReceiveMetrics;
+import org.asamk.signal.manager.internal.SendScheduler;
+import org.asamk.signal.manager.internal.SenderKeyEligibilityCache;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.internal.TypingCoalescer;
 import org.asamk.signal.manager.storage.AttachmentStore;
 import org.asamk.signal.manager.storage.AvatarStore;
 import org.asamk.signal.manager.storage.SignalAccount;
@@ -20,6 +26,12 @@ public class Context implements AutoCloseable {
     private final StickerPackStore stickerPackStore;
     private final AttachmentStore attachmentStore;
     private final JobExecutor jobExecutor;
+    private final ActionExecutor actionExecutor;
+    private final ReceiveMetrics receiveMetrics = new ReceiveMetrics();
+    private final SendScheduler sendScheduler;
+    private final SenderKeyEligibilityCache senderKeyEligibilityCache = new SenderKeyEligibilityCache();
+    private final ReceiptCoalescer receiptCoalescer = new ReceiptCoalescer();
+    private final TypingCoalescer typingCoalescer = new TypingCoalescer();
 
     private AccountHelper accountHelper;
     private AttachmentHelper attachmentHelper;
@@ -54,6 +66,8 @@ public class Context implements AutoCloseable {
         this.stickerPackStore = stickerPackStore;
         this.attachmentStore = attachmentStore;
         this.jobExecutor = new JobExecutor(this);
+        this.actionExecutor = new ActionExecutor(this);
+        this.sendScheduler = new SendScheduler(account.getSettings().sendRateLimit());
     }
 
     public SignalAccount getAccount() {
@@ -84,6 +98,30 @@ public class Context implements AutoCloseable {
         return jobExecutor;
     }
 
+    public ActionExecutor getActionExecutor() {
+        return actionExecutor;
+    }
+
+    public ReceiveMetrics getReceiveMetrics() {
+        return receiveMetrics;
+    }
+
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
+
+    public SenderKeyEligibilityCache getSenderKeyEligibilityCache() {
+        return senderKeyEligibilityCache;
+    }
+
+    public ReceiptCoalescer getReceiptCoalescer() {
+        return receiptCoalescer;
+    }
+
+    public TypingCoalescer getTypingCoalescer() {
+        return typingCoalescer;
+    }
+
     public AccountHelper getAccountHelper() {
         return getOrCreate(() -> accountHelper, () -> accountHelper = new AccountHelper(this));
     }
@@ -172,7 +210,16 @@ public class Context implements AutoCloseable {
 
     @Override
     public void close() {
+        actionExecutor.close();
         jobExecutor.close();
+        synchronized (LOCK) {
+            if (attachmentHelper != null) {
+                attachmentHelper.close();
+            }
+            if (sendHelper != null) {
+                sendHelper.close();
+            }
+        }
     }
 
     private interface Callable {
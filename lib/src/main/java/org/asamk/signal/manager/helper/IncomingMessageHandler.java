@@ -51,6 +51,7 @@ import org.whispersystems.signalservice.api.InvalidMessageStructureException;
 import org.whispersystems.signalservice.api.crypto.SignalGroupSessionBuilder;
 import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult;
 import org.whispersystems.signalservice.api.messages.EnvelopeContentValidator;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
 import org.whispersystems.signalservice.api.messages.SignalServiceContent;
 import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
@@ -123,11 +124,12 @@ public final class IncomingMessageHandler {
         return new Pair<>(actions, null);
     }
 
-    public Pair<List<HandleAction>, Exception> handleEnvelope(
-            final SignalServiceEnvelope envelope,
-            final ReceiveConfig receiveConfig,
-            final Manager.ReceiveMessageHandler handler
-    ) {
+    /**
+     * Decrypt the envelope, without handling its content yet.
+     *
+     * @return the decrypted envelope or null, if the envelope should be dropped without handling it
+     */
+    public DecryptedEnvelope decryptEnvelope(final SignalServiceEnvelope envelope) {
         final var actions = new ArrayList<HandleAction>();
         SignalServiceContent content = null;
         Exception exception = null;
@@ -141,7 +143,7 @@ public final class IncomingMessageHandler {
                         .decrypt(envelope.getProto(), envelope.getServerDeliveredTimestamp());
                 content = validate(envelope.getProto(), cipherResult, envelope.getServerDeliveredTimestamp());
                 if (content == null) {
-                    return new Pair<>(List.of(), null);
+                    return null;
                 }
             } catch (ProtocolUntrustedIdentityException e) {
                 final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
@@ -188,15 +190,27 @@ public final class IncomingMessageHandler {
                 exception = e;
             } catch (SelfSendException e) {
                 logger.debug("Dropping unidentified message from self.");
-                return new Pair<>(List.of(), null);
+                return null;
             } catch (Exception e) {
                 logger.debug("Failed to handle incoming message", e);
                 exception = e;
             }
         }
+        return new DecryptedEnvelope(envelope, content, actions, exception);
+    }
 
-        actions.addAll(checkAndHandleMessage(envelope, content, receiveConfig, handler, exception));
-        return new Pair<>(actions, exception);
+    public Pair<List<HandleAction>, Exception> handleDecryptedEnvelope(
+            final DecryptedEnvelope decrypted,
+            final ReceiveConfig receiveConfig,
+            final Manager.ReceiveMessageHandler handler
+    ) {
+        final var actions = new ArrayList<>(decrypted.actions());
+        actions.addAll(checkAndHandleMessage(decrypted.envelope(),
+                decrypted.content(),
+                receiveConfig,
+                handler,
+                decrypted.exception()));
+        return new Pair<>(actions, decrypted.exception());
     }
 
     private SignalServiceContent validate(
@@ -804,15 +818,14 @@ public final class IncomingMessageHandler {
             }
         }
         if (!ignoreAttachments) {
+            final var attachments = new ArrayList<SignalServiceAttachment>();
             if (message.getAttachments().isPresent()) {
-                for (var attachment : message.getAttachments().get()) {
-                    context.getAttachmentHelper().downloadAttachment(attachment);
-                }
+                attachments.addAll(message.getAttachments().get());
             }
             if (message.getSharedContacts().isPresent()) {
                 for (var contact : message.getSharedContacts().get()) {
                     if (contact.getAvatar().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(contact.getAvatar().get().getAttachment());
+                        attachments.add(contact.getAvatar().get().getAttachment());
                     }
                 }
             }
@@ -820,7 +833,7 @@ public final class IncomingMessageHandler {
                 final var previews = message.getPreviews().get();
                 for (var preview : previews) {
                     if (preview.getImage().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(preview.getImage().get());
+                        attachments.add(preview.getImage().get());
                     }
                 }
             }
@@ -831,11 +844,12 @@ public final class IncomingMessageHandler {
                     for (var quotedAttachment : quote.getAttachments()) {
                         final var thumbnail = quotedAttachment.getThumbnail();
                         if (thumbnail != null) {
-                            context.getAttachmentHelper().downloadAttachment(thumbnail);
+                            attachments.add(thumbnail);
                         }
                     }
                 }
             }
+            context.getAttachmentHelper().downloadAttachments(attachments);
         }
         if (message.getGiftBadge().isPresent()) {
             handleIncomingGiftBadge(message.getGiftBadge().get());
@@ -869,18 +883,20 @@ public final class IncomingMessageHandler {
         }
 
         if (!ignoreAttachments) {
+            final var attachments = new ArrayList<SignalServiceAttachment>();
             if (message.getFileAttachment().isPresent()) {
-                context.getAttachmentHelper().downloadAttachment(message.getFileAttachment().get());
+                attachments.add(message.getFileAttachment().get());
             }
             if (message.getTextAttachment().isPresent()) {
                 final var textAttachment = message.getTextAttachment().get();
                 if (textAttachment.getPreview().isPresent()) {
                     final var preview = textAttachment.getPreview().get();
                     if (preview.getImage().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(preview.getImage().get());
+                        attachments.add(preview.getImage().get());
                     }
                 }
             }
+            context.getAttachmentHelper().downloadAttachments(attachments);
         }
 
         if (message.getProfileKey().isPresent()) {
@@ -955,4 +971,15 @@ public final class IncomingMessageHandler {
     }
 
     private record DeviceAddress(RecipientId recipientId, ServiceId serviceId, int deviceId) {}
+
+    /**
+     * @param content the decrypted content, null for receipts and envelopes that failed to decrypt
+     * @param actions actions caused by the decryption, e.g. to renew a broken session
+     */
+    public record DecryptedEnvelope(
+            SignalServiceEnvelope envelope,
+            SignalServiceContent content,
+            List<HandleAction> actions,
+            Exception exception
+    ) {}
 }
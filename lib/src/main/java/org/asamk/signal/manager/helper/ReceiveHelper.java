@@ -2,8 +2,10 @@ package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.actions.HandleAction;
+import org.asamk.signal.manager.api.HandlerOverflowPolicy;
 import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.manager.api.UntrustedIdentityException;
+import org.asamk.signal.manager.internal.ReceiveMetrics;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.messageCache.CachedMessage;
@@ -19,12 +21,17 @@ import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableExcept
 
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 import io.reactivex.rxjava3.core.Observable;
@@ -34,18 +41,34 @@ public class ReceiveHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(ReceiveHelper.class);
     private static final int MAX_BACKOFF_COUNTER = 9;
+    private static final int RETRY_CHUNK_SIZE = 100;
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
 
-    private ReceiveConfig receiveConfig = new ReceiveConfig(false, false, false);
+    private ReceiveConfig receiveConfig = new ReceiveConfig(false,
+            false,
+            false,
+            1,
+            1,
+            ReceiveConfig.DEFAULT_ATTACHMENT_DOWNLOAD_THREADS,
+            false,
+            1000,
+            HandlerOverflowPolicy.BLOCK);
     private boolean needsToRetryFailedMessages = false;
     private boolean hasCaughtUpWithOldMessages = false;
     private boolean isWaitingForMessage = false;
     private boolean shouldStop = false;
     private Callable authenticationFailureListener;
     private Callable caughtUpWithOldMessagesListener;
+    private ExecutorService laneExecutor;
+    private int laneExecutorSize;
+    private final Object handleLock = new Object();
+    private Thread retryThread;
+    private boolean retryRequested = false;
+    // Cached by the receive thread, but not handled yet, the retry must not handle them out of order
+    private final Set<CachedMessage> unhandledMessages = ConcurrentHashMap.newKeySet();
 
     public ReceiveHelper(final Context context) {
         this.account = context.getAccount();
@@ -56,6 +79,8 @@ public class ReceiveHelper {
     public void setReceiveConfig(final ReceiveConfig receiveConfig) {
         this.receiveConfig = receiveConfig;
         dependencies.setAllowStories(!receiveConfig.ignoreStories());
+        context.getAttachmentHelper()
+                .setDownloadConfig(receiveConfig.attachmentDownloadThreads(), receiveConfig.deferAttachmentDownloads());
     }
 
     public void setNeedsToRetryFailedMessages(final boolean needsToRetryFailedMessages) {
@@ -110,8 +135,16 @@ public class ReceiveHelper {
             hasCaughtUpWithOldMessages = false;
             handleQueuedActions(queuedActions.keySet());
             queuedActions.clear();
+            try {
+                awaitRetryFailedReceivedMessages();
+                // Make sure all actions are done before the caller continues, e.g. to close the account
+                context.getActionExecutor().awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             signalWebSocket.disconnect();
             webSocketStateDisposable.dispose();
+            shutdownLaneExecutor();
             shouldStop = false;
         }
     }
@@ -130,31 +163,61 @@ public class ReceiveHelper {
 
         while (!shouldStop && remainingMessages != 0) {
             if (needsToRetryFailedMessages) {
-                retryFailedReceivedMessages(handler);
                 needsToRetryFailedMessages = false;
+                startRetryFailedReceivedMessages(handler);
             }
-            SignalServiceEnvelope envelope;
-            final CachedMessage[] cachedMessage = {null};
+            final var cachedMessages = new ArrayList<ReceivedMessage>();
+            // Messages of a previous batch that failed are left to the retry
+            unhandledMessages.clear();
             final var nowMillis = System.currentTimeMillis();
             if (nowMillis - account.getLastReceiveTimestamp() > 60000) {
                 account.setLastReceiveTimestamp(nowMillis);
             }
+            final var batchSize = remainingMessages > 0
+                    ? Math.min(remainingMessages, getBatchSize())
+                    : getBatchSize();
             logger.debug("Checking for new message from server");
+            final boolean queueNotEmpty;
             try {
                 isWaitingForMessage = true;
-                var queueNotEmpty = signalWebSocket.readMessageBatch(timeout.toMillis(), 1, batch -> {
+                queueNotEmpty = signalWebSocket.readMessageBatch(timeout.toMillis(), batchSize, batch -> {
                     logger.debug("Retrieved {} envelopes!", batch.size());
                     isWaitingForMessage = false;
+                    final var metrics = context.getReceiveMetrics();
+                    final var readAtMillis = System.currentTimeMillis();
+                    final var readAtNanos = System.nanoTime();
+                    final var receivedEnvelopeStore = account.getReceivedEnvelopeStore();
+                    // store messages on disk, before acknowledging receipt to the server
                     for (final var it : batch) {
-                        SignalServiceEnvelope envelope1 = new SignalServiceEnvelope(it.getEnvelope(),
+                        final var envelope = new SignalServiceEnvelope(it.getEnvelope(),
                                 it.getServerDeliveredTimestamp());
-                        final var recipientId = envelope1.getSourceServiceId()
+                        metrics.recordMillis(ReceiveMetrics.Stage.SERVER_TO_READ,
+                                readAtMillis - envelope.getServerDeliveredTimestamp());
+                        final var serverGuid = envelope.getServerGuid();
+                        if (serverGuid != null && receivedEnvelopeStore.contains(serverGuid, envelope.getTimestamp())) {
+                            // Delivered again, e.g. because the ack got lost, skip it before the expensive decryption
+                            logger.debug("Skipping duplicate envelope {}", serverGuid);
+                            metrics.recordDuplicateEnvelope();
+                            continue;
+                        }
+                        final var recipientId = envelope.getSourceServiceId()
                                 .map(ServiceId::parseOrNull)
                                 .map(s -> account.getRecipientResolver().resolveRecipient(s))
                                 .orElse(null);
                         logger.trace("Storing new message from {}", recipientId);
-                        // store message on disk, before acknowledging receipt to the server
-                        cachedMessage[0] = account.getMessageCache().cacheMessage(envelope1, recipientId);
+                        final var cachedMessage = account.getMessageCache().cacheMessage(envelope, recipientId);
+                        if (serverGuid != null) {
+                            // Only remembered once it's stored, otherwise a failed batch would be skipped when it's
+                            // delivered again
+                            receivedEnvelopeStore.add(serverGuid, envelope.getTimestamp());
+                        }
+                        final var cachedAtNanos = System.nanoTime();
+                        metrics.recordNanos(ReceiveMetrics.Stage.READ_TO_CACHED, cachedAtNanos - readAtNanos);
+                        unhandledMessages.add(cachedMessage);
+                        cachedMessages.add(new ReceivedMessage(cachedMessage, cachedAtNanos));
+                    }
+                    receivedEnvelopeStore.flush();
+                    for (final var it : batch) {
                         try {
                             signalWebSocket.sendAck(it);
                         } catch (IOException e) {
@@ -164,24 +227,6 @@ public class ReceiveHelper {
                 });
                 isWaitingForMessage = false;
                 backOffCounter = 0;
-
-                if (queueNotEmpty) {
-                    if (remainingMessages > 0) {
-                        remainingMessages -= 1;
-                    }
-                    envelope = cachedMessage[0].loadEnvelope();
-                    logger.debug("New message received from server");
-                } else {
-                    logger.debug("Received indicator that server queue is empty");
-                    handleQueuedActions(queuedActions.keySet());
-                    queuedActions.clear();
-
-                    hasCaughtUpWithOldMessages = true;
-                    caughtUpWithOldMessagesListener.call();
-
-                    // Continue to wait another timeout for new messages
-                    continue;
-                }
             } catch (AssertionError e) {
                 if (e.getCause() instanceof InterruptedException) {
                     break;
@@ -213,57 +258,282 @@ public class ReceiveHelper {
                 continue;
             }
 
-            try {
-                final var result = context.getIncomingMessageHandler().handleEnvelope(envelope, receiveConfig, handler);
-                for (final var h : result.first()) {
-                    final var existingAction = queuedActions.get(h);
-                    if (existingAction == null) {
-                        queuedActions.put(h, h);
-                    } else {
-                        existingAction.mergeOther(h);
-                    }
+            if (!cachedMessages.isEmpty()) {
+                logger.debug("New {} message(s) received from server", cachedMessages.size());
+                if (remainingMessages > 0) {
+                    remainingMessages = Math.max(0, remainingMessages - cachedMessages.size());
+                }
+                synchronized (handleLock) {
+                    handleCachedMessages(cachedMessages, handler, queuedActions);
+                    unhandledMessages.clear();
                 }
-                final var exception = result.second();
-
                 if (hasCaughtUpWithOldMessages) {
                     handleQueuedActions(queuedActions.keySet());
                     queuedActions.clear();
                 }
-                if (cachedMessage[0] != null) {
-                    if (exception instanceof UntrustedIdentityException) {
-                        logger.debug("Keeping message with untrusted identity in message cache");
-                        final var address = ((UntrustedIdentityException) exception).getSender();
-                        if (envelope.getSourceServiceId().isEmpty() && address.uuid().isPresent()) {
-                            final var recipientId = account.getRecipientResolver()
-                                    .resolveRecipient(ACI.from(address.uuid().get()));
-                            try {
-                                cachedMessage[0] = account.getMessageCache()
-                                        .replaceSender(cachedMessage[0], recipientId);
-                            } catch (IOException ioException) {
-                                logger.warn("Failed to move cached message to recipient folder: {}",
-                                        ioException.getMessage(),
-                                        ioException);
-                            }
+            }
+
+            if (!queueNotEmpty) {
+                // The last batch may contain messages and the queue empty indicator at the same time
+                logger.debug("Received indicator that server queue is empty");
+                handleQueuedActions(queuedActions.keySet());
+                queuedActions.clear();
+
+                hasCaughtUpWithOldMessages = true;
+                caughtUpWithOldMessagesListener.call();
+            }
+        }
+    }
+
+    private int getBatchSize() {
+        return Math.max(1, receiveConfig.batchSize());
+    }
+
+    private int getReceiveLanes() {
+        return Math.max(1, receiveConfig.receiveLanes());
+    }
+
+    private void handleCachedMessages(
+            final List<ReceivedMessage> cachedMessages,
+            final Manager.ReceiveMessageHandler handler,
+            final Map<HandleAction, HandleAction> queuedActions
+    ) {
+        final var laneCount = Math.min(getReceiveLanes(), cachedMessages.size());
+        if (laneCount <= 1) {
+            for (final var cachedMessage : cachedMessages) {
+                final var decryptedMessage = decryptCachedMessage(cachedMessage);
+                if (decryptedMessage != null) {
+                    queueActions(handleDecryptedMessage(decryptedMessage, handler), queuedActions);
+                }
+            }
+            return;
+        }
+
+        // Decryption updates the protocol stores, so it stays sequential, only handling the content is parallel.
+        // The sender is known after decryption, also for sealed sender envelopes, so messages of the same sender
+        // always end up in the same lane and are handled in order.
+        final var lanes = new ArrayList<List<DecryptedMessage>>(laneCount);
+        for (var i = 0; i < laneCount; i++) {
+            lanes.add(new ArrayList<>());
+        }
+        for (final var cachedMessage : cachedMessages) {
+            final var decryptedMessage = decryptCachedMessage(cachedMessage);
+            if (decryptedMessage != null) {
+                lanes.get(getLane(decryptedMessage.decrypted(), laneCount)).add(decryptedMessage);
+            }
+        }
+
+        // Handlers don't need to be thread safe, so callbacks from different lanes are serialized
+        final Manager.ReceiveMessageHandler laneHandler = (envelope, e) -> {
+            synchronized (handler) {
+                handler.handleMessage(envelope, e);
+            }
+        };
+        final var executor = getLaneExecutor();
+        final var futures = new ArrayList<Future<List<HandleAction>>>();
+        for (final var lane : lanes) {
+            if (lane.isEmpty()) {
+                continue;
+            }
+            futures.add(executor.submit(() -> {
+                final var actions = new ArrayList<HandleAction>();
+                for (final var decryptedMessage : lane) {
+                    actions.addAll(handleDecryptedMessage(decryptedMessage, laneHandler));
+                }
+                return actions;
+            }));
+        }
+
+        var interrupted = false;
+        for (final var future : futures) {
+            while (true) {
+                try {
+                    queueActions(future.get(), queuedActions);
+                    break;
+                } catch (InterruptedException e) {
+                    // Wait for the lane anyway, the messages are only removed from the cache once handled
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    logger.error("Unknown error when handling messages", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int getLane(final IncomingMessageHandler.DecryptedEnvelope decrypted, final int laneCount) {
+        final var content = decrypted.content();
+        final var sender = content != null
+                ? content.getSender().getServiceId()
+                : decrypted.envelope().getSourceServiceId().map(ServiceId::parseOrNull).orElse(null);
+        // Only envelopes that failed to decrypt have no known sender
+        return sender == null ? 0 : Math.floorMod(sender.hashCode(), laneCount);
+    }
+
+    private ExecutorService getLaneExecutor() {
+        final var receiveLanes = getReceiveLanes();
+        if (laneExecutor == null || laneExecutorSize != receiveLanes) {
+            shutdownLaneExecutor();
+            laneExecutor = Executors.newFixedThreadPool(receiveLanes,
+                    Thread.ofPlatform().name("receive-lane-", 0).daemon().factory());
+            laneExecutorSize = receiveLanes;
+        }
+        return laneExecutor;
+    }
+
+    private void shutdownLaneExecutor() {
+        if (laneExecutor != null) {
+            laneExecutor.shutdown();
+            laneExecutor = null;
+        }
+    }
+
+    private static void queueActions(
+            final List<HandleAction> actions, final Map<HandleAction, HandleAction> queuedActions
+    ) {
+        for (final var h : actions) {
+            final var existingAction = queuedActions.get(h);
+            if (existingAction == null) {
+                queuedActions.put(h, h);
+            } else {
+                existingAction.mergeOther(h);
+            }
+        }
+    }
+
+    /**
+     * @return the decrypted message or null, if there's nothing left to handle
+     */
+    private DecryptedMessage decryptCachedMessage(final ReceivedMessage receivedMessage) {
+        final var cachedMessage = receivedMessage.cachedMessage();
+        try {
+            final var envelope = cachedMessage.loadEnvelope();
+            if (envelope == null) {
+                logger.debug("Cached message is no longer available, skipping it");
+                return null;
+            }
+            final var decrypted = context.getIncomingMessageHandler().decryptEnvelope(envelope);
+            final var decryptedAtNanos = System.nanoTime();
+            context.getReceiveMetrics()
+                    .recordNanos(ReceiveMetrics.Stage.CACHED_TO_DECRYPTED,
+                            decryptedAtNanos - receivedMessage.cachedAtNanos());
+            if (decrypted == null) {
+                cachedMessage.delete();
+                return null;
+            }
+            return new DecryptedMessage(cachedMessage, decrypted, decryptedAtNanos);
+        } catch (Exception e) {
+            logger.error("Unknown error when handling messages", e);
+            return null;
+        }
+    }
+
+    private List<HandleAction> handleDecryptedMessage(
+            final DecryptedMessage decryptedMessage, final Manager.ReceiveMessageHandler handler
+    ) {
+        final var cachedMessage = decryptedMessage.cachedMessage();
+        try {
+            final var envelope = decryptedMessage.decrypted().envelope();
+            final var result = context.getIncomingMessageHandler()
+                    .handleDecryptedEnvelope(decryptedMessage.decrypted(), receiveConfig, handler);
+            context.getReceiveMetrics()
+                    .recordNanos(ReceiveMetrics.Stage.DECRYPTED_TO_HANDLED,
+                            System.nanoTime() - decryptedMessage.decryptedAtNanos());
+            final var exception = result.second();
+
+            if (exception instanceof UntrustedIdentityException) {
+                logger.debug("Keeping message with untrusted identity in message cache");
+                final var address = ((UntrustedIdentityException) exception).getSender();
+                if (envelope.getSourceServiceId().isEmpty() && address.uuid().isPresent()) {
+                    final var recipientId = account.getRecipientResolver()
+                            .resolveRecipient(ACI.from(address.uuid().get()));
+                    try {
+                        account.getMessageCache().replaceSender(cachedMessage, recipientId);
+                    } catch (IOException ioException) {
+                        logger.warn("Failed to move cached message to recipient folder: {}",
+                                ioException.getMessage(),
+                                ioException);
+                    }
+                }
+            } else {
+                cachedMessage.delete();
+            }
+            return result.first();
+        } catch (Exception e) {
+            logger.error("Unknown error when handling messages", e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Retry the cached messages in the background, so receiving new messages doesn't have to wait for a possibly
+     * large backlog of messages from untrusted identities.
+     */
+    private void startRetryFailedReceivedMessages(final Manager.ReceiveMessageHandler handler) {
+        synchronized (handleLock) {
+            if (retryThread != null) {
+                // The running retry scan starts over once it's finished
+                retryRequested = true;
+                return;
+            }
+            retryThread = Thread.ofPlatform().name("receive-retry").daemon().start(() -> {
+                try {
+                    boolean requested;
+                    do {
+                        retryFailedReceivedMessages(handler);
+                        synchronized (handleLock) {
+                            requested = retryRequested;
+                            retryRequested = false;
                         }
-                    } else {
-                        cachedMessage[0].delete();
+                    } while (requested && !shouldStop);
+                } finally {
+                    synchronized (handleLock) {
+                        retryThread = null;
+                        handleLock.notifyAll();
                     }
                 }
-            } catch (Exception e) {
-                logger.error("Unknown error when handling messages", e);
+            });
+        }
+    }
+
+    private void awaitRetryFailedReceivedMessages() throws InterruptedException {
+        synchronized (handleLock) {
+            while (retryThread != null) {
+                handleLock.wait();
             }
         }
     }
 
     private void retryFailedReceivedMessages(Manager.ReceiveMessageHandler handler) {
-        Set<HandleAction> queuedActions = new HashSet<>();
-        for (var cachedMessage : account.getMessageCache().getCachedMessages()) {
-            var actions = retryFailedReceivedMessage(handler, cachedMessage);
-            if (actions != null) {
-                queuedActions.addAll(actions);
+        logger.debug("Retrying cached messages");
+        var retriedCount = 0;
+        try (final var cachedMessages = account.getMessageCache().getCachedMessages()) {
+            final var iterator = cachedMessages.iterator();
+            while (!shouldStop && iterator.hasNext()) {
+                final var queuedActions = new HashMap<HandleAction, HandleAction>();
+                // Handle a chunk at a time, so newly received messages can be handled in between
+                synchronized (handleLock) {
+                    for (var i = 0; i < RETRY_CHUNK_SIZE && iterator.hasNext(); i++) {
+                        final var cachedMessage = iterator.next();
+                        if (unhandledMessages.contains(cachedMessage)) {
+                            continue;
+                        }
+                        final var actions = retryFailedReceivedMessage(handler, cachedMessage);
+                        if (actions != null) {
+                            queueActions(actions, queuedActions);
+                        }
+                        retriedCount++;
+                    }
+                }
+                handleQueuedActions(queuedActions.keySet());
             }
+        } catch (Exception e) {
+            logger.error("Unknown error when retrying cached messages", e);
         }
-        handleQueuedActions(queuedActions);
+        logger.debug("Retried {} cached messages", retriedCount);
     }
 
     private List<HandleAction> retryFailedReceivedMessage(
@@ -306,15 +576,14 @@ public class ReceiveHelper {
     }
 
     private void handleQueuedActions(final Collection<HandleAction> queuedActions) {
-        logger.debug("Handling message actions");
-        for (var action : queuedActions) {
-            logger.debug("Executing action {}", action.getClass().getSimpleName());
-            try {
-                action.execute(context);
-            } catch (Throwable e) {
-                logger.warn("Message action failed.", e);
-            }
+        if (queuedActions.isEmpty()) {
+            return;
         }
+        final var actionExecutor = context.getActionExecutor();
+        logger.debug("Queuing {} message actions, {} already queued",
+                queuedActions.size(),
+                actionExecutor.getStats().queued());
+        actionExecutor.enqueueActions(queuedActions);
     }
 
     private void onWebSocketStateChange(final WebSocketConnectionState s) {
@@ -324,6 +593,12 @@ public class ReceiveHelper {
         }
     }
 
+    private record ReceivedMessage(CachedMessage cachedMessage, long cachedAtNanos) {}
+
+    private record DecryptedMessage(
+            CachedMessage cachedMessage, IncomingMessageHandler.DecryptedEnvelope decrypted, long decryptedAtNanos
+    ) {}
+
     public interface Callable {
 
         void call();
@@ -77,6 +77,52 @@ public class RecipientHelper {
         return recipientIds;
     }
 
+    /**
+     * Resolve many recipients at once, numbers that aren't known yet are looked up with a single CDSI request.
+     *
+     * @return the resolved recipients, unregistered recipients are missing
+     */
+    public Map<RecipientIdentifier.Single, RecipientId> resolveRecipientsBulk(Collection<RecipientIdentifier.Single> recipients) {
+        final var recipientStore = account.getRecipientStore();
+        final var unknownNumbers = new HashSet<String>();
+        for (final var recipient : recipients) {
+            if (recipient instanceof RecipientIdentifier.Number numberRecipient) {
+                try {
+                    recipientStore.resolveRecipientByNumber(numberRecipient.number(), () -> null);
+                } catch (UnregisteredRecipientException e) {
+                    unknownNumbers.add(numberRecipient.number());
+                }
+            }
+        }
+
+        var queriedNumbers = Set.<String>of();
+        if (!unknownNumbers.isEmpty()) {
+            try {
+                getRegisteredUsers(unknownNumbers);
+                queriedNumbers = unknownNumbers;
+            } catch (IOException e) {
+                logger.warn("Failed to look up {} numbers at once, resolving them separately: {}",
+                        unknownNumbers.size(),
+                        e.getMessage());
+            }
+        }
+
+        final var recipientIds = new HashMap<RecipientIdentifier.Single, RecipientId>(recipients.size());
+        for (final var recipient : recipients) {
+            try {
+                // Numbers that are still unknown after the lookup aren't registered
+                final var recipientId = recipient instanceof RecipientIdentifier.Number numberRecipient
+                        && queriedNumbers.contains(numberRecipient.number())
+                        ? recipientStore.resolveRecipientByNumber(numberRecipient.number(), () -> null)
+                        : resolveRecipient(recipient);
+                recipientIds.put(recipient, recipientId);
+            } catch (UnregisteredRecipientException e) {
+                logger.debug("Recipient {} is not registered", recipient.getIdentifier());
+            }
+        }
+        return recipientIds;
+    }
+
     public RecipientId resolveRecipient(final RecipientIdentifier.Single recipient) throws UnregisteredRecipientException {
         if (recipient instanceof RecipientIdentifier.Uuid uuidRecipient) {
             return account.getRecipientResolver().resolveRecipient(ACI.from(uuidRecipient.uuid()));
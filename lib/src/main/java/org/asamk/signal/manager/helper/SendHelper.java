@@ -16,12 +16,14 @@ import org.asamk.signal.manager.storage.sendLog.MessageSendLogEntry;
 import org.signal.libsignal.protocol.InvalidKeyException;
 import org.signal.libsignal.protocol.InvalidRegistrationIdException;
 import org.signal.libsignal.protocol.NoSessionException;
+import org.signal.libsignal.protocol.SessionBuilder;
 import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.message.DecryptionErrorMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.crypto.ContentHint;
+import org.whispersystems.signalservice.api.crypto.SignalSessionBuilder;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
 import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
@@ -33,6 +35,7 @@ import org.whispersystems.signalservice.api.messages.SignalServiceTypingMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SentTranscriptMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SignalServiceSyncMessage;
 import org.whispersystems.signalservice.api.push.DistributionId;
+import org.whispersystems.signalservice.api.push.ServiceIdType;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
 import org.whispersystems.signalservice.api.push.exceptions.ProofRequiredException;
@@ -49,6 +52,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -58,10 +65,15 @@ public class SendHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(SendHelper.class);
 
+    private static final Duration LEGACY_SEND_RATE_LIMIT_BACKOFF = Duration.ofMinutes(5);
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
 
+    private ExecutorService legacySendExecutor;
+    private volatile long legacySendRateLimitedUntil = 0;
+
     public SendHelper(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
@@ -133,6 +145,42 @@ public class SendHelper {
         return result;
     }
 
+    /**
+     * @return true if there's a session with the primary device of the recipient
+     */
+    public boolean hasSession(RecipientId recipientId) {
+        final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
+        return account.getAccountData(ServiceIdType.ACI)
+                .getSessionStore()
+                .containsSession(new SignalProtocolAddress(address.getServiceId().toString(),
+                        SignalServiceAddress.DEFAULT_DEVICE_ID));
+    }
+
+    /**
+     * Fetch the pre key bundles of all devices of the recipient and establish new sessions with them, so the next
+     * message to the recipient doesn't need to do it.
+     */
+    public void createSessions(RecipientId recipientId) throws IOException, UntrustedIdentityException {
+        final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
+        final var unidentifiedAccess = context.getUnidentifiedAccessHelper()
+                .getAccessFor(recipientId)
+                .flatMap(UnidentifiedAccessPair::getTargetUnidentifiedAccess);
+        final var preKeyBundles = dependencies.getPushServiceSocket()
+                .getPreKeys(address, unidentifiedAccess, SignalServiceAddress.DEFAULT_DEVICE_ID);
+        final var store = account.getSignalServiceDataStore().aci();
+        for (final var preKeyBundle : preKeyBundles) {
+            final var protocolAddress = new SignalProtocolAddress(address.getServiceId().toString(),
+                    preKeyBundle.getDeviceId());
+            final var sessionBuilder = new SignalSessionBuilder(dependencies.getSessionLock(),
+                    new SessionBuilder(store, protocolAddress));
+            try {
+                sessionBuilder.process(preKeyBundle);
+            } catch (InvalidKeyException e) {
+                throw new IOException("Invalid pre key bundle for " + protocolAddress, e);
+            }
+        }
+    }
+
     public SendMessageResult sendProfileKey(RecipientId recipientId) {
         logger.debug("Sending updated profile key to recipient: {}", recipientId);
         final var profileKey = account.getProfileKey().serialize();
@@ -462,7 +510,7 @@ public class SendHelper {
         final var isRecipientUpdate = false;
         Set<RecipientId> senderKeyTargets = distributionId == null
                 ? Set.of()
-                : getSenderKeyCapableRecipientIds(recipientIds);
+                : getSenderKeyCapableRecipientIds(distributionId, recipientIds);
         final var allResults = new ArrayList<SendMessageResult>(recipientIds.size());
 
         if (!senderKeyTargets.isEmpty()) {
@@ -483,6 +531,7 @@ public class SendHelper {
                 if (!failedTargets.isEmpty()) {
                     senderKeyTargets = new HashSet<>(senderKeyTargets);
                     failedTargets.forEach(senderKeyTargets::remove);
+                    failedTargets.forEach(context.getSenderKeyEligibilityCache()::invalidate);
                 }
             }
         }
@@ -508,13 +557,29 @@ public class SendHelper {
         return allResults;
     }
 
-    private Set<RecipientId> getSenderKeyCapableRecipientIds(final Set<RecipientId> recipientIds) {
+    private Set<RecipientId> getSenderKeyCapableRecipientIds(
+            final DistributionId distributionId, final Set<RecipientId> recipientIds
+    ) {
         final var selfProfile = context.getProfileHelper().getSelfProfile();
         if (selfProfile == null || !selfProfile.getCapabilities().contains(Profile.Capability.senderKey)) {
             logger.debug("Not all of our devices support sender key. Using legacy.");
             return Set.of();
         }
 
+        final var eligibilityCache = context.getSenderKeyEligibilityCache();
+        final var cachedTargets = eligibilityCache.get(distributionId, recipientIds);
+        if (cachedTargets != null) {
+            logger.debug("Can use sender key for {}/{} recipients (cached).",
+                    cachedTargets.size(),
+                    recipientIds.size());
+            return cachedTargets;
+        }
+        final var senderKeyTargets = determineSenderKeyCapableRecipientIds(recipientIds);
+        eligibilityCache.put(distributionId, recipientIds, senderKeyTargets);
+        return senderKeyTargets;
+    }
+
+    private Set<RecipientId> determineSenderKeyCapableRecipientIds(final Set<RecipientId> recipientIds) {
         final var senderKeyTargets = new HashSet<RecipientId>();
         final var recipientList = new ArrayList<>(recipientIds);
         final var profiles = context.getProfileHelper().getRecipientProfiles(recipientList).iterator();
@@ -561,8 +626,17 @@ public class SendHelper {
                 .map(context.getRecipientHelper()::resolveSignalServiceAddress)
                 .toList();
         final var unidentifiedAccesses = context.getUnidentifiedAccessHelper().getAccessFor(recipientIdList);
+        final var concurrency = getLegacySendConcurrency(recipientIdList.size());
+        if (concurrency > 1) {
+            return sendGroupMessageInternalWithLegacyParallel(sender,
+                    addresses,
+                    unidentifiedAccesses,
+                    isRecipientUpdate,
+                    concurrency);
+        }
         try {
             final var results = sender.send(addresses, unidentifiedAccesses, isRecipientUpdate);
+            checkLegacySendRateLimit(results);
 
             final var successCount = results.stream().filter(SendMessageResult::isSuccess).count();
             logger.debug("Successfully sent using 1:1 to {}/{} legacy targets.", successCount, recipientIdList.size());
@@ -572,6 +646,107 @@ public class SendHelper {
         }
     }
 
+    /**
+     * Send to the legacy targets in contiguous chunks, one chunk per thread.
+     * Every chunk sends its own sync transcript, all except the first are marked as recipient update.
+     */
+    private List<SendMessageResult> sendGroupMessageInternalWithLegacyParallel(
+            final LegacySenderHandler sender,
+            final List<SignalServiceAddress> addresses,
+            final List<Optional<UnidentifiedAccessPair>> unidentifiedAccesses,
+            final boolean isRecipientUpdate,
+            final int concurrency
+    ) throws IOException {
+        final var chunkSize = (addresses.size() + concurrency - 1) / concurrency;
+        final var executor = getLegacySendExecutor();
+        final var futures = new ArrayList<Future<List<SendMessageResult>>>();
+        for (var start = 0; start < addresses.size(); start += chunkSize) {
+            final var end = Math.min(start + chunkSize, addresses.size());
+            final var chunkAddresses = addresses.subList(start, end);
+            final var chunkAccesses = unidentifiedAccesses.subList(start, end);
+            final var chunkIsRecipientUpdate = isRecipientUpdate || start > 0;
+            futures.add(executor.submit(() -> {
+                try {
+                    return sender.send(chunkAddresses, chunkAccesses, chunkIsRecipientUpdate);
+                } catch (RateLimitException e) {
+                    logger.warn("Sending failed due to rate limiting from the signal server: {}", e.getMessage());
+                    return chunkAddresses.stream().map(a -> SendMessageResult.rateLimitFailure(a, e)).toList();
+                } catch (org.whispersystems.signalservice.api.crypto.UntrustedIdentityException e) {
+                    return List.of();
+                }
+            }));
+        }
+
+        final var results = new ArrayList<SendMessageResult>(addresses.size());
+        IOException exception = null;
+        var interrupted = false;
+        for (final var future : futures) {
+            while (true) {
+                try {
+                    results.addAll(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // The chunks are sent anyway, wait for their results
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException ioException) {
+                        exception = exception == null ? ioException : exception;
+                    } else {
+                        logger.error("Unexpected error while sending to legacy targets", e.getCause());
+                        exception = exception == null ? new IOException(e.getCause()) : exception;
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        checkLegacySendRateLimit(results);
+
+        final var successCount = results.stream().filter(SendMessageResult::isSuccess).count();
+        logger.debug("Successfully sent using 1:1 to {}/{} legacy targets in {} parallel chunks.",
+                successCount,
+                addresses.size(),
+                futures.size());
+        return results;
+    }
+
+    private int getLegacySendConcurrency(final int recipientCount) {
+        if (System.currentTimeMillis() < legacySendRateLimitedUntil) {
+            logger.debug("Recently rate limited, sending to legacy targets sequentially");
+            return 1;
+        }
+        return Math.min(account.getSettings().legacySendConcurrency(), recipientCount);
+    }
+
+    private void checkLegacySendRateLimit(final List<SendMessageResult> results) {
+        if (results.stream().anyMatch(r -> r.getRateLimitFailure() != null)) {
+            legacySendRateLimitedUntil = System.currentTimeMillis() + LEGACY_SEND_RATE_LIMIT_BACKOFF.toMillis();
+        }
+    }
+
+    /**
+     * Stop the legacy send threads, once their running sends are done.
+     */
+    public synchronized void close() {
+        if (legacySendExecutor != null) {
+            legacySendExecutor.shutdown();
+            legacySendExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getLegacySendExecutor() {
+        if (legacySendExecutor == null) {
+            legacySendExecutor = Executors.newFixedThreadPool(account.getSettings().legacySendConcurrency(),
+                    Thread.ofPlatform().name("legacy-send-", 0).daemon().factory());
+        }
+        return legacySendExecutor;
+    }
+
     private List<SendMessageResult> sendGroupMessageInternalWithSenderKey(
             final SenderKeySenderHandler sender,
             final Set<RecipientId> recipientIds,
@@ -724,6 +899,12 @@ public class SendHelper {
     }
 
     private void handleSendMessageResult(final SendMessageResult r) {
+        if (r.getRateLimitFailure() != null) {
+            context.getSendScheduler().onRateLimited(r.getRateLimitFailure().getRetryAfterMilliseconds());
+        }
+        if (r.getProofRequiredFailure() != null) {
+            context.getSendScheduler().onProofRequired(r.getProofRequiredFailure().getRetryAfterSeconds());
+        }
         if (r.isSuccess() && !r.getSuccess().isUnidentified()) {
             final var recipientId = account.getRecipientResolver().resolveRecipient(r.getAddress());
             final var profile = account.getProfileStore().getProfile(recipientId);
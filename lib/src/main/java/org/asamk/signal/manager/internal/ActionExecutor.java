@@ -0,0 +1,167 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.actions.HandleAction;
+import org.asamk.signal.manager.api.ActionQueueStats;
+import org.asamk.signal.manager.helper.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Executes the actions resulting from received messages on a separate thread, so receiving doesn't have to wait for
+ * them.
+ * Equal actions that are still queued are merged. If the queue is full, enqueuing waits until there's space again.
+ */
+public class ActionExecutor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionExecutor.class);
+    private static final int MAX_QUEUED_ACTIONS = 1000;
+
+    private final Context context;
+    // Use a Map here because java Set doesn't have a get method ...
+    private final Map<HandleAction, HandleAction> queuedActions = new LinkedHashMap<>();
+    private boolean isExecuting = false;
+    private boolean closed = false;
+    private Thread thread;
+    private long executedCount = 0;
+    private long mergedCount = 0;
+    private long blockedCount = 0;
+
+    public ActionExecutor(final Context context) {
+        this.context = context;
+    }
+
+    public void enqueueActions(Collection<HandleAction> actions) {
+        var interrupted = false;
+        for (final var action : actions) {
+            while (true) {
+                try {
+                    enqueueAction(action);
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep waiting, the messages causing the actions have already been removed from the cache
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public ActionQueueStats getStats() {
+        synchronized (this) {
+            return new ActionQueueStats(queuedActions.size(), executedCount, mergedCount, blockedCount);
+        }
+    }
+
+    /**
+     * Wait until all queued actions have been executed.
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (this) {
+            while (!closed && (isExecuting || !queuedActions.isEmpty())) {
+                wait();
+            }
+        }
+    }
+
+    private void enqueueAction(final HandleAction action) throws InterruptedException {
+        synchronized (this) {
+            var blocked = false;
+            while (true) {
+                if (closed) {
+                    logger.warn("Action executor is closed, dropping {}", action.getClass().getSimpleName());
+                    return;
+                }
+                final var existingAction = queuedActions.get(action);
+                if (existingAction != null) {
+                    existingAction.mergeOther(action);
+                    mergedCount++;
+                    return;
+                }
+                // The executing thread can't wait for itself
+                if (queuedActions.size() < MAX_QUEUED_ACTIONS || Thread.currentThread() == thread) {
+                    break;
+                }
+                logger.debug("Action queue is full, waiting to enqueue {}", action.getClass().getSimpleName());
+                if (!blocked) {
+                    blocked = true;
+                    blockedCount++;
+                }
+                wait();
+            }
+            queuedActions.put(action, action);
+            startThreadIfRequired();
+            notifyAll();
+        }
+    }
+
+    private void startThreadIfRequired() {
+        if (thread != null) {
+            return;
+        }
+        thread = Thread.ofPlatform().name("handle-actions").daemon().start(this::run);
+    }
+
+    private void run() {
+        while (true) {
+            final HandleAction action;
+            synchronized (this) {
+                isExecuting = false;
+                notifyAll();
+                while (!closed && queuedActions.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queuedActions.isEmpty()) {
+                    return;
+                }
+                final var iterator = queuedActions.keySet().iterator();
+                action = iterator.next();
+                iterator.remove();
+                isExecuting = true;
+                executedCount++;
+                // Wake up callers waiting for space in the queue
+                notifyAll();
+            }
+
+            execute(action);
+        }
+    }
+
+    private void execute(final HandleAction action) {
+        logger.debug("Executing action {}", action.getClass().getSimpleName());
+        try {
+            action.execute(context);
+        } catch (Throwable e) {
+            logger.warn("Message action failed.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // Remaining queued actions are still executed before the thread finishes
+            closed = true;
+            notifyAll();
+            thread = this.thread;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.LatencyStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of an HdrHistogram.
+ * Values are stored in microseconds, in 32 linear sub-buckets per power of two, so every recorded value keeps a
+ * relative precision of about 3%, independent of its magnitude.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final long MAX_VALUE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE_MICROS) + 1);
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void recordNanos(final long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void recordMillis(final long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    private void recordMicros(final long micros) {
+        // Negative values can occur when the local clock is behind the server clock
+        final var value = Math.min(Math.max(0, micros), MAX_VALUE_MICROS);
+        counts.incrementAndGet(getIndex(value));
+        totalMicros.addAndGet(value);
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+
+    LatencyStats getStats(final String stage) {
+        final var snapshot = new long[counts.length()];
+        var count = 0L;
+        for (var i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        final var max = maxMicros.get();
+        return new LatencyStats(stage,
+                count,
+                // The sum may already include a concurrent record that isn't counted in the snapshot yet
+                count == 0 ? 0 : toMillis(totalMicros.get() / count),
+                toMillis(getPercentile(snapshot, count, 50, max)),
+                toMillis(getPercentile(snapshot, count, 90, max)),
+                toMillis(getPercentile(snapshot, count, 99, max)),
+                toMillis(getPercentile(snapshot, count, 99.9, max)),
+                toMillis(max));
+    }
+
+    private static long getPercentile(
+            final long[] snapshot, final long count, final double percentile, final long max
+    ) {
+        if (count == 0) {
+            return 0;
+        }
+        final var targetCount = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        var cumulativeCount = 0L;
+        for (var i = 0; i < snapshot.length; i++) {
+            cumulativeCount += snapshot[i];
+            if (cumulativeCount >= targetCount) {
+                return Math.min(getHighestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int getIndex(final long value) {
+        final var exponent = 63 - Long.numberOfLeadingZeros(value);
+        final var shift = Math.max(0, exponent - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long getHighestValue(final int index) {
+        final var shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        final var subBucket = index - (shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1L) << shift) - 1;
+    }
+
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -17,8 +17,11 @@
 package org.asamk.signal.manager.internal;
 
 import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.ActionQueueStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.BatchMessage;
+import org.asamk.signal.manager.api.CacheStats;
 import org.asamk.signal.manager.api.CaptchaRequiredException;
 import org.asamk.signal.manager.api.Configuration;
 import org.asamk.signal.manager.api.Device;
@@ -28,6 +31,7 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.GroupInviteLinkUrl;
 import org.asamk.signal.manager.api.GroupNotFoundException;
 import org.asamk.signal.manager.api.GroupSendingNotAllowedException;
+import org.asamk.signal.manager.api.HandlerOverflowPolicy;
 import org.asamk.signal.manager.api.Identity;
 import org.asamk.signal.manager.api.IdentityVerificationCode;
 import org.asamk.signal.manager.api.InactiveGroupLinkException;
@@ -36,6 +40,7 @@ import org.asamk.signal.manager.api.InvalidDeviceLinkException;
 import org.asamk.signal.manager.api.InvalidStickerException;
 import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
+import org.asamk.signal.manager.api.LatencyStats;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.NonNormalizedPhoneNumberException;
@@ -44,14 +49,18 @@ import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PendingAdminApprovalException;
 import org.asamk.signal.manager.api.PinLockedException;
+import org.asamk.signal.manager.api.PrepareRecipientsResult;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveHandlerStats;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResult;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.SendPriority;
+import org.asamk.signal.manager.api.SendQueueStats;
 import org.asamk.signal.manager.api.StickerPackId;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
 import org.asamk.signal.manager.api.StickerPackUrl;
@@ -84,6 +93,7 @@ import org.signal.libsignal.usernames.BaseUsernameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
 import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServicePreview;
 import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
@@ -121,13 +131,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
 
 public class ManagerImpl implements Manager {
 
     private static final Logger logger = LoggerFactory.getLogger(ManagerImpl.class);
+    private static final int BATCH_SEND_THREADS = 8;
+    private static final int PREPARE_RECIPIENTS_THREADS = 8;
 
     private SignalAccount account;
     private final SignalDependencies dependencies;
@@ -139,8 +150,12 @@ public class ManagerImpl implements Manager {
     private boolean isReceivingSynchronous;
     private final Set<ReceiveMessageHandler> weakHandlers = new HashSet<>();
     private final Set<ReceiveMessageHandler> messageHandlers = new HashSet<>();
+    private final Map<ReceiveMessageHandler, ReceiveHandlerQueue> handlerQueues = new HashMap<>();
+    private int handlerQueueSize = 1000;
+    private HandlerOverflowPolicy handlerOverflowPolicy = HandlerOverflowPolicy.BLOCK;
     private final List<Runnable> closedListeners = new ArrayList<>();
     private final List<Runnable> addressChangedListeners = new ArrayList<>();
+    private final List<AttachmentReadyHandler> attachmentReadyHandlers = new ArrayList<>();
     private final CompositeDisposable disposable = new CompositeDisposable();
 
     public ManagerImpl(
@@ -187,6 +202,17 @@ public class ManagerImpl implements Manager {
         }, dependencies, avatarStore, attachmentStore, stickerPackStore);
         this.context.getAccountHelper().setUnregisteredListener(this::close);
         this.context.getReceiveHelper().setAuthenticationFailureListener(this::close);
+        this.context.getAttachmentHelper().setAttachmentReadyListener(attachmentReady -> {
+            synchronized (attachmentReadyHandlers) {
+                attachmentReadyHandlers.forEach(h -> {
+                    try {
+                        h.handleAttachmentReady(attachmentReady);
+                    } catch (Throwable ex) {
+                        logger.warn("Attachment ready handler failed, ignoring", ex);
+                    }
+                });
+            }
+        });
         this.context.getReceiveHelper().setCaughtUpWithOldMessagesListener(() -> {
             synchronized (this) {
                 this.notifyAll();
@@ -198,6 +224,7 @@ public class ManagerImpl implements Manager {
             account.getAccountData(ServiceIdType.PNI).getSessionStore().archiveSessions(serviceId);
             account.getSenderKeyStore().deleteSharedWith(serviceId);
             final var recipientId = account.getRecipientResolver().resolveRecipient(serviceId);
+            context.getSenderKeyEligibilityCache().invalidate(recipientId);
             final var profile = account.getProfileStore().getProfile(recipientId);
             if (profile != null) {
                 account.getProfileStore()
@@ -208,6 +235,13 @@ public class ManagerImpl implements Manager {
                                         .build());
             }
         }));
+        disposable.add(account.getIdentityKeyStore()
+                .getTrustLevelChanges()
+                .subscribe(serviceId -> context.getSenderKeyEligibilityCache()
+                        .invalidate(account.getRecipientResolver().resolveRecipient(serviceId))));
+        disposable.add(account.getRecipientStore()
+                .getProfileChanges()
+                .subscribe(context.getSenderKeyEligibilityCache()::invalidate));
     }
 
     @Override
@@ -530,10 +564,51 @@ public class ManagerImpl implements Manager {
     private SendMessageResults sendMessage(
             SignalServiceDataMessage.Builder messageBuilder, Set<RecipientIdentifier> recipients
     ) throws IOException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException {
-        return sendMessage(messageBuilder, recipients, Optional.empty());
+        return sendMessage(messageBuilder, recipients, Optional.empty(), SendPriority.INTERACTIVE);
     }
 
     private SendMessageResults sendMessage(
+            SignalServiceDataMessage.Builder messageBuilder,
+            Set<RecipientIdentifier> recipients,
+            Optional<Long> editTargetTimestamp,
+            SendPriority priority
+    ) throws IOException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException {
+        final var sendScheduler = context.getSendScheduler();
+        final var recipientCount = getRecipientCount(recipients);
+        for (var attempt = 1; ; attempt++) {
+            sendScheduler.acquire(priority, recipientCount);
+            final var results = sendMessageNow(messageBuilder, recipients, editTargetTimestamp);
+            if (!results.hasRateLimitFailure()) {
+                return results;
+            }
+            if (results.hasProofRequiredFailure()) {
+                // Retrying doesn't help until the challenge has been solved
+                sendScheduler.recordProofRequired(priority);
+                return results;
+            }
+            sendScheduler.recordRateLimited(priority);
+            // Only retry if nothing was delivered, otherwise recipients would get the message twice
+            if (!results.hasOnlyRateLimitFailure() || attempt >= SendScheduler.MAX_ATTEMPTS) {
+                return results;
+            }
+            logger.debug("Sending was rate limited, retrying (attempt {})", attempt + 1);
+        }
+    }
+
+    private int getRecipientCount(final Set<RecipientIdentifier> recipients) {
+        var count = 0;
+        for (final var recipient : recipients) {
+            if (recipient instanceof RecipientIdentifier.Group group) {
+                final var g = context.getGroupHelper().getGroup(group.groupId());
+                count += g == null ? 1 : g.getMembersWithout(account.getSelfRecipientId()).size();
+            } else {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private SendMessageResults sendMessageNow(
             SignalServiceDataMessage.Builder messageBuilder,
             Set<RecipientIdentifier> recipients,
             Optional<Long> editTargetTimestamp
@@ -547,6 +622,8 @@ public class ManagerImpl implements Manager {
                     final var recipientId = context.getRecipientHelper().resolveRecipient(single);
                     final var result = context.getSendHelper()
                             .sendMessage(messageBuilder, recipientId, editTargetTimestamp);
+                    // Receiving a message ends the typing indicator
+                    context.getTypingCoalescer().onStopped(TypingCoalescer.Target.of(recipientId));
                     results.put(recipient, List.of(toSendMessageResult(result)));
                 } catch (UnregisteredRecipientException e) {
                     results.put(recipient,
@@ -558,6 +635,7 @@ public class ManagerImpl implements Manager {
             } else if (recipient instanceof RecipientIdentifier.Group group) {
                 final var result = context.getSendHelper()
                         .sendAsGroupMessage(messageBuilder, group.groupId(), editTargetTimestamp);
+                context.getTypingCoalescer().onStopped(TypingCoalescer.Target.of(group.groupId()));
                 results.put(recipient, result.stream().map(this::toSendMessageResult).toList());
             }
         }
@@ -578,22 +656,55 @@ public class ManagerImpl implements Manager {
                 final var message = new SignalServiceTypingMessage(action, timestamp, Optional.empty());
                 try {
                     final var recipientId = context.getRecipientHelper().resolveRecipient(single);
+                    final var previousResults = getRedundantTypingResults(action,
+                            TypingCoalescer.Target.of(recipientId));
+                    if (previousResults != null) {
+                        results.put(recipient, previousResults);
+                        continue;
+                    }
                     final var result = context.getSendHelper().sendTypingMessage(message, recipientId);
                     results.put(recipient, List.of(toSendMessageResult(result)));
+                    updateTypingState(action, TypingCoalescer.Target.of(recipientId), results.get(recipient));
                 } catch (UnregisteredRecipientException e) {
                     results.put(recipient,
                             List.of(SendMessageResult.unregisteredFailure(single.toPartialRecipientAddress())));
                 }
             } else if (recipient instanceof RecipientIdentifier.Group) {
                 final var groupId = ((RecipientIdentifier.Group) recipient).groupId();
+                final var previousResults = getRedundantTypingResults(action, TypingCoalescer.Target.of(groupId));
+                if (previousResults != null) {
+                    results.put(recipient, previousResults);
+                    continue;
+                }
                 final var message = new SignalServiceTypingMessage(action, timestamp, Optional.of(groupId.serialize()));
                 final var result = context.getSendHelper().sendGroupTypingMessage(message, groupId);
                 results.put(recipient, result.stream().map(this::toSendMessageResult).toList());
+                updateTypingState(action, TypingCoalescer.Target.of(groupId), results.get(recipient));
             }
         }
         return new SendMessageResults(timestamp, results);
     }
 
+    private List<SendMessageResult> getRedundantTypingResults(
+            final SignalServiceTypingMessage.Action action, final TypingCoalescer.Target target
+    ) {
+        return action == SignalServiceTypingMessage.Action.STARTED
+                ? context.getTypingCoalescer().getResultsIfRedundant(target)
+                : null;
+    }
+
+    private void updateTypingState(
+            final SignalServiceTypingMessage.Action action,
+            final TypingCoalescer.Target target,
+            final List<SendMessageResult> results
+    ) {
+        if (action == SignalServiceTypingMessage.Action.STARTED) {
+            context.getTypingCoalescer().onStarted(target, results);
+        } else {
+            context.getTypingCoalescer().onStopped(target);
+        }
+    }
+
     @Override
     public SendMessageResults sendTypingMessage(
             TypingAction action, Set<RecipientIdentifier> recipients
@@ -610,7 +721,7 @@ public class ManagerImpl implements Manager {
                 messageIds,
                 timestamp);
 
-        return sendReceiptMessage(sender, timestamp, receiptMessage);
+        return sendReceiptMessage(sender, receiptMessage);
     }
 
     @Override
@@ -622,27 +733,29 @@ public class ManagerImpl implements Manager {
                 messageIds,
                 timestamp);
 
-        return sendReceiptMessage(sender, timestamp, receiptMessage);
+        return sendReceiptMessage(sender, receiptMessage);
     }
 
     private SendMessageResults sendReceiptMessage(
-            final RecipientIdentifier.Single sender,
-            final long timestamp,
-            final SignalServiceReceiptMessage receiptMessage
+            final RecipientIdentifier.Single sender, final SignalServiceReceiptMessage receiptMessage
     ) {
         try {
-            final var result = context.getSendHelper()
-                    .sendReceiptMessage(receiptMessage, context.getRecipientHelper().resolveRecipient(sender));
-            return new SendMessageResults(timestamp, Map.of(sender, List.of(toSendMessageResult(result))));
+            final var recipientId = context.getRecipientHelper().resolveRecipient(sender);
+            final var sentReceipt = context.getReceiptCoalescer()
+                    .send(recipientId,
+                            receiptMessage,
+                            message -> context.getSendHelper().sendReceiptMessage(message, recipientId));
+            return new SendMessageResults(sentReceipt.timestamp(),
+                    Map.of(sender, List.of(toSendMessageResult(sentReceipt.result()))));
         } catch (UnregisteredRecipientException e) {
-            return new SendMessageResults(timestamp,
+            return new SendMessageResults(receiptMessage.getWhen(),
                     Map.of(sender, List.of(SendMessageResult.unregisteredFailure(sender.toPartialRecipientAddress()))));
         }
     }
 
     @Override
     public SendMessageResults sendMessage(
-            Message message, Set<RecipientIdentifier> recipients
+            Message message, Set<RecipientIdentifier> recipients, SendPriority priority
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
         final var selfProfile = context.getProfileHelper().getSelfProfile();
         if (selfProfile == null || selfProfile.getDisplayName().isEmpty()) {
@@ -651,7 +764,125 @@ public class ManagerImpl implements Manager {
         }
         final var messageBuilder = SignalServiceDataMessage.newBuilder();
         applyMessage(messageBuilder, message);
-        return sendMessage(messageBuilder, recipients);
+        return sendMessage(messageBuilder, recipients, Optional.empty(), priority);
+    }
+
+    @Override
+    public void sendMessageBatch(
+            final List<BatchMessage> messages, final SendPriority priority, final BatchSendListener listener
+    ) throws IOException, AttachmentInvalidException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        // Upload each distinct attachment only once for the whole batch
+        final var attachments = messages.stream()
+                .flatMap(batchMessage -> batchMessage.message().attachments().stream())
+                .distinct()
+                .toList();
+        final var attachmentPointers = context.getAttachmentHelper().uploadAttachments(attachments);
+        final var uploadedAttachments = new HashMap<String, SignalServiceAttachment>(attachments.size());
+        for (var i = 0; i < attachments.size(); i++) {
+            uploadedAttachments.put(attachments.get(i), attachmentPointers.get(i));
+        }
+
+        final var singleRecipients = messages.stream()
+                .map(BatchMessage::recipient)
+                .filter(r -> r instanceof RecipientIdentifier.Single)
+                .map(RecipientIdentifier.Single.class::cast)
+                .collect(Collectors.toSet());
+        final var resolvedRecipients = context.getRecipientHelper().resolveRecipientsBulk(singleRecipients);
+
+        // The send scheduler still decides when each message is sent, the threads only keep multiple sends in flight
+        try (final var executor = Executors.newFixedThreadPool(Math.min(BATCH_SEND_THREADS, messages.size()),
+                Thread.ofPlatform().name("batch-send-", 0).daemon().factory())) {
+            for (var i = 0; i < messages.size(); i++) {
+                final var index = i;
+                executor.execute(() -> sendBatchMessage(index,
+                        messages.get(index),
+                        uploadedAttachments,
+                        resolvedRecipients,
+                        priority,
+                        listener));
+            }
+        }
+    }
+
+    @Override
+    public PrepareRecipientsResult prepareRecipients(final Set<RecipientIdentifier.Single> recipients) {
+        final var resolvedRecipients = context.getRecipientHelper().resolveRecipientsBulk(recipients);
+        final var unregistered = recipients.stream().filter(r -> !resolvedRecipients.containsKey(r)).toList();
+        final var recipientIds = resolvedRecipients.values()
+                .stream()
+                .distinct()
+                .filter(r -> !r.equals(account.getSelfRecipientId()))
+                .toList();
+        final var sendHelper = context.getSendHelper();
+        final var withoutSession = recipientIds.stream().filter(r -> !sendHelper.hasSession(r)).toList();
+
+        final var created = new AtomicInteger();
+        final var failed = new AtomicInteger();
+        if (!withoutSession.isEmpty()) {
+            try (final var executor = Executors.newFixedThreadPool(Math.min(PREPARE_RECIPIENTS_THREADS,
+                    withoutSession.size()), Thread.ofPlatform().name("prepare-recipients-", 0).daemon().factory())) {
+                for (final var recipientId : withoutSession) {
+                    executor.execute(() -> {
+                        try {
+                            sendHelper.createSessions(recipientId);
+                            created.incrementAndGet();
+                        } catch (Exception e) {
+                            logger.debug("Failed to create session with {}: {}", recipientId, e.getMessage());
+                            failed.incrementAndGet();
+                        }
+                    });
+                }
+            }
+        }
+        logger.debug("Prepared {} recipients: {} new sessions, {} failed, {} unregistered",
+                recipients.size(),
+                created.get(),
+                failed.get(),
+                unregistered.size());
+        return new PrepareRecipientsResult(unregistered,
+                created.get(),
+                recipientIds.size() - withoutSession.size(),
+                failed.get());
+    }
+
+    private void sendBatchMessage(
+            final int index,
+            final BatchMessage batchMessage,
+            final Map<String, SignalServiceAttachment> uploadedAttachments,
+            final Map<RecipientIdentifier.Single, RecipientId> resolvedRecipients,
+            final SendPriority priority,
+            final BatchSendListener listener
+    ) {
+        final var recipient = batchMessage.recipient();
+        if (recipient instanceof RecipientIdentifier.Single single && !resolvedRecipients.containsKey(single)) {
+            listener.onSent(index,
+                    new SendMessageResults(System.currentTimeMillis(),
+                            Map.of(recipient,
+                                    List.of(SendMessageResult.unregisteredFailure(single.toPartialRecipientAddress())))));
+            return;
+        }
+        try {
+            final var message = batchMessage.message();
+            final var messageBuilder = SignalServiceDataMessage.newBuilder();
+            applyMessage(messageBuilder,
+                    new Message(message.messageText(),
+                            List.of(),
+                            message.mentions(),
+                            message.quote(),
+                            message.sticker(),
+                            message.previews(),
+                            message.storyReply(),
+                            message.textStyles()));
+            if (!message.attachments().isEmpty()) {
+                messageBuilder.withAttachments(message.attachments().stream().map(uploadedAttachments::get).toList());
+            }
+            listener.onSent(index, sendMessage(messageBuilder, Set.of(recipient), Optional.empty(), priority));
+        } catch (Exception e) {
+            listener.onFailed(index, e);
+        }
     }
 
     @Override
@@ -660,7 +891,7 @@ public class ManagerImpl implements Manager {
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException, UnregisteredRecipientException, InvalidStickerException {
         final var messageBuilder = SignalServiceDataMessage.newBuilder();
         applyMessage(messageBuilder, message);
-        return sendMessage(messageBuilder, recipients, Optional.of(editTargetTimestamp));
+        return sendMessage(messageBuilder, recipients, Optional.of(editTargetTimestamp), SendPriority.INTERACTIVE);
     }
 
     private void applyMessage(
@@ -1014,6 +1245,7 @@ public class ManagerImpl implements Manager {
 
     @Override
     public void requestAllSyncData() throws IOException {
+        context.getSendScheduler().acquire(SendPriority.BACKGROUND, 1);
         context.getSyncHelper().requestAllSyncData();
         retrieveRemoteStorage();
     }
@@ -1025,6 +1257,13 @@ public class ManagerImpl implements Manager {
     @Override
     public void addReceiveHandler(final ReceiveMessageHandler handler, final boolean isWeakListener) {
         synchronized (messageHandlers) {
+            handlerQueues.computeIfAbsent(handler,
+                    h -> new ReceiveHandlerQueue(h,
+                            handlerQueueSize,
+                            handlerOverflowPolicy,
+                            // Not removing directly, the receive thread may be the one that is stopped
+                            () -> Thread.ofVirtual().start(() -> removeReceiveHandler(h)),
+                            context.getReceiveMetrics()));
             if (isWeakListener) {
                 weakHandlers.add(handler);
             } else {
@@ -1057,31 +1296,74 @@ public class ManagerImpl implements Manager {
     }
 
     private void passReceivedMessageToHandlers(MessageEnvelope envelope, Throwable e) {
+        final List<ReceiveHandlerQueue> queues;
         synchronized (messageHandlers) {
-            Stream.concat(messageHandlers.stream(), weakHandlers.stream()).forEach(h -> {
-                try {
-                    h.handleMessage(envelope, e);
-                } catch (Throwable ex) {
-                    logger.warn("Message handler failed, ignoring", ex);
-                }
-            });
+            queues = List.copyOf(handlerQueues.values());
+        }
+        // Enqueue outside the lock, a full queue may block and handlers need to be removable meanwhile
+        for (final var queue : queues) {
+            queue.enqueue(envelope, e);
         }
     }
 
+    @Override
+    public List<ReceiveHandlerStats> getReceiveHandlerStats() {
+        synchronized (messageHandlers) {
+            return handlerQueues.values().stream().map(ReceiveHandlerQueue::getStats).toList();
+        }
+    }
+
+    @Override
+    public List<SendQueueStats> getSendQueueStats() {
+        return context.getSendScheduler().getStats();
+    }
+
+    @Override
+    public List<CacheStats> getCacheStats() {
+        return List.of(context.getSenderKeyEligibilityCache().getStats(),
+                account.getAccountData(ServiceIdType.ACI).getSessionStore().getCacheStats(),
+                account.getAccountData(ServiceIdType.PNI).getSessionStore().getCacheStats(),
+                account.getRecipientStore().getCacheStats());
+    }
+
+    @Override
+    public List<LatencyStats> getReceiveLatencyStats() {
+        return context.getReceiveMetrics().getStats();
+    }
+
+    @Override
+    public long getDuplicateEnvelopeCount() {
+        return context.getReceiveMetrics().getDuplicateEnvelopeCount();
+    }
+
+    @Override
+    public ActionQueueStats getActionQueueStats() {
+        return context.getActionExecutor().getStats();
+    }
+
     @Override
     public void removeReceiveHandler(final ReceiveMessageHandler handler) {
         final Thread thread;
+        final ReceiveHandlerQueue queue;
         synchronized (messageHandlers) {
             weakHandlers.remove(handler);
             messageHandlers.remove(handler);
+            queue = handlerQueues.remove(handler);
             if (!messageHandlers.isEmpty() || receiveThread == null || isReceivingSynchronous) {
-                return;
+                thread = null;
+            } else {
+                thread = receiveThread;
+                receiveThread = null;
             }
-            thread = receiveThread;
-            receiveThread = null;
+        }
+        // Closing waits for the queued messages to be handled, so not holding the lock
+        if (queue != null) {
+            queue.close();
         }
 
-        stopReceiveThread(thread);
+        if (thread != null) {
+            stopReceiveThread(thread);
+        }
     }
 
     private void stopReceiveThread(final Thread thread) {
@@ -1155,6 +1437,25 @@ public class ManagerImpl implements Manager {
     @Override
     public void setReceiveConfig(final ReceiveConfig receiveConfig) {
         context.getReceiveHelper().setReceiveConfig(receiveConfig);
+        synchronized (messageHandlers) {
+            // Only applies to handlers added afterward
+            handlerQueueSize = receiveConfig.handlerQueueSize();
+            handlerOverflowPolicy = receiveConfig.handlerOverflowPolicy();
+        }
+    }
+
+    @Override
+    public void addAttachmentReadyHandler(final AttachmentReadyHandler handler) {
+        synchronized (attachmentReadyHandlers) {
+            attachmentReadyHandlers.add(handler);
+        }
+    }
+
+    @Override
+    public void removeAttachmentReadyHandler(final AttachmentReadyHandler handler) {
+        synchronized (attachmentReadyHandlers) {
+            attachmentReadyHandlers.remove(handler);
+        }
     }
 
     @Override
@@ -1170,6 +1471,7 @@ public class ManagerImpl implements Manager {
 
     @Override
     public void sendContacts() throws IOException {
+        context.getSendScheduler().acquire(SendPriority.BACKGROUND, 1);
         context.getSyncHelper().sendContacts();
     }
 
@@ -1333,15 +1635,19 @@ public class ManagerImpl implements Manager {
     @Override
     public void close() {
         Thread thread;
+        final List<ReceiveHandlerQueue> queues;
         synchronized (messageHandlers) {
             weakHandlers.clear();
             messageHandlers.clear();
+            queues = List.copyOf(handlerQueues.values());
+            handlerQueues.clear();
             thread = receiveThread;
             receiveThread = null;
         }
         if (thread != null) {
             stopReceiveThread(thread);
         }
+        queues.forEach(ReceiveHandlerQueue::close);
         executor.close();
         context.close();
 
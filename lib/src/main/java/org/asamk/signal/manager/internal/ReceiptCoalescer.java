@@ -0,0 +1,104 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Merges receipts of the same type to the same recipient, that are sent within a short window, into a single receipt
+ * message with all their timestamps.
+ * The first caller waits for the window to pass and sends the merged receipt, the other callers get its result and
+ * timestamp.
+ */
+public class ReceiptCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiptCoalescer.class);
+    private static final Duration WINDOW = Duration.ofMillis(100);
+
+    private final Map<Key, Batch> batches = new HashMap<>();
+
+    public SentReceipt send(
+            RecipientId recipientId,
+            SignalServiceReceiptMessage receiptMessage,
+            Function<SignalServiceReceiptMessage, SendMessageResult> sender
+    ) {
+        final var key = new Key(recipientId, receiptMessage.getType());
+        final Batch batch;
+        final boolean isFirst;
+        synchronized (this) {
+            final var existingBatch = batches.get(key);
+            isFirst = existingBatch == null;
+            if (isFirst) {
+                batch = new Batch(receiptMessage.getWhen());
+                batches.put(key, batch);
+            } else {
+                batch = existingBatch;
+                batch.count++;
+            }
+            batch.timestamps.addAll(receiptMessage.getTimestamps());
+        }
+        if (!isFirst) {
+            try {
+                return batch.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            Thread.sleep(WINDOW);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final SignalServiceReceiptMessage mergedMessage;
+        synchronized (this) {
+            batches.remove(key);
+            mergedMessage = new SignalServiceReceiptMessage(key.type(), new ArrayList<>(batch.timestamps), batch.when);
+            if (batch.count > 1) {
+                logger.debug("Merged {} receipts to {} into one message", batch.count, recipientId);
+            }
+        }
+        try {
+            final var sentReceipt = new SentReceipt(mergedMessage.getWhen(), sender.apply(mergedMessage));
+            batch.result.complete(sentReceipt);
+            return sentReceipt;
+        } catch (RuntimeException e) {
+            batch.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param timestamp the timestamp of the sent message, which differs from the caller's receipt if it was merged
+     */
+    public record SentReceipt(long timestamp, SendMessageResult result) {}
+
+    private record Key(RecipientId recipientId, SignalServiceReceiptMessage.Type type) {}
+
+    private static final class Batch {
+
+        private final long when;
+        private final Set<Long> timestamps = new LinkedHashSet<>();
+        private final CompletableFuture<SentReceipt> result = new CompletableFuture<>();
+        private int count = 1;
+
+        private Batch(final long when) {
+            this.when = when;
+        }
+    }
+}
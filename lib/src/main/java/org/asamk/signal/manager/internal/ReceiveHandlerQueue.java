@@ -0,0 +1,197 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.HandlerOverflowPolicy;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.ReceiveHandlerStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers received messages to a single handler on its own virtual thread, so a slow handler doesn't hold up
+ * receiving for the other handlers.
+ * The received messages are already acknowledged, so a closed queue still delivers the messages it holds.
+ */
+final class ReceiveHandlerQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiveHandlerQueue.class);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Manager.ReceiveMessageHandler handler;
+    private final int capacity;
+    private final HandlerOverflowPolicy overflowPolicy;
+    private final Runnable disconnectListener;
+    private final ReceiveMetrics metrics;
+    private final ArrayDeque<QueuedMessage> queue = new ArrayDeque<>();
+    // Not using synchronized, waiting in it would pin the virtual thread to its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Thread thread;
+
+    private long delivered = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+    private boolean stopped = false;
+
+    ReceiveHandlerQueue(
+            final Manager.ReceiveMessageHandler handler,
+            final int capacity,
+            final HandlerOverflowPolicy overflowPolicy,
+            final Runnable disconnectListener,
+            final ReceiveMetrics metrics
+    ) {
+        this.handler = handler;
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.disconnectListener = disconnectListener;
+        this.metrics = metrics;
+        this.thread = Thread.ofVirtual().name("receive-handler-" + handler.getClass().getSimpleName()).start(this::run);
+    }
+
+    Manager.ReceiveMessageHandler getHandler() {
+        return handler;
+    }
+
+    void enqueue(final MessageEnvelope envelope, final Throwable e) {
+        var disconnect = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (queue.size() >= capacity && !closed) {
+                switch (overflowPolicy) {
+                    case BLOCK -> {
+                        try {
+                            notFull.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    case DROP_OLDEST -> {
+                        queue.removeFirst();
+                        dropped++;
+                        if (dropped == 1 || dropped % 100 == 0) {
+                            logger.warn("Receive handler {} is too slow, dropped {} messages so far",
+                                    handler.getClass().getSimpleName(),
+                                    dropped);
+                        }
+                    }
+                    case DISCONNECT -> {
+                        logger.warn("Receive handler {} is too slow, disconnecting it",
+                                handler.getClass().getSimpleName());
+                        // Queued messages are still delivered, the handler only doesn't get new ones
+                        queue.addLast(new QueuedMessage(envelope, e, System.currentTimeMillis(), System.nanoTime()));
+                        closed = true;
+                        notEmpty.signalAll();
+                        disconnect = true;
+                    }
+                }
+            }
+            if (!closed) {
+                queue.addLast(new QueuedMessage(envelope, e, System.currentTimeMillis(), System.nanoTime()));
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (disconnect) {
+            disconnectListener.run();
+        }
+    }
+
+    ReceiveHandlerStats getStats() {
+        lock.lock();
+        try {
+            final var oldest = queue.peekFirst();
+            final var lag = oldest == null ? 0 : System.currentTimeMillis() - oldest.queuedAt();
+            return new ReceiveHandlerStats(handler.getClass().getName(), queue.size(), delivered, dropped, lag);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting new messages and waits a bounded time until the queued messages are delivered.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            if (Thread.currentThread() == thread) {
+                // Closed by the handler itself, the remaining messages are delivered after it returns
+                return;
+            }
+            var remaining = DRAIN_TIMEOUT.toNanos();
+            while (!stopped && remaining > 0) {
+                remaining = drained.awaitNanos(remaining);
+            }
+            if (!stopped) {
+                logger.warn("Receive handler {} didn't handle {} queued messages in time, dropping them",
+                        handler.getClass().getSimpleName(),
+                        queue.size());
+                dropped += queue.size();
+                queue.clear();
+                thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final QueuedMessage message;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        notEmpty.await();
+                    } catch (InterruptedException e) {
+                        stop();
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    stop();
+                    return;
+                }
+                message = queue.removeFirst();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                handler.handleMessage(message.envelope(), message.exception());
+            } catch (Throwable ex) {
+                logger.warn("Message handler failed, ignoring", ex);
+            }
+            metrics.recordNanos(ReceiveMetrics.Stage.HANDLER_DELIVERY, System.nanoTime() - message.queuedAtNanos());
+            lock.lock();
+            try {
+                delivered++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void stop() {
+        stopped = true;
+        drained.signalAll();
+    }
+
+    private record QueuedMessage(MessageEnvelope envelope, Throwable exception, long queuedAt, long queuedAtNanos) {}
+}
@@ -0,0 +1,79 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.LatencyStats;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of the stages every received envelope passes through.
+ */
+public class ReceiveMetrics {
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final AtomicLong duplicateEnvelopes = new AtomicLong();
+
+    public ReceiveMetrics() {
+        for (final var stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void recordNanos(final Stage stage, final long nanos) {
+        histograms.get(stage).recordNanos(nanos);
+    }
+
+    public void recordMillis(final Stage stage, final long millis) {
+        histograms.get(stage).recordMillis(millis);
+    }
+
+    public void recordDuplicateEnvelope() {
+        duplicateEnvelopes.incrementAndGet();
+    }
+
+    public long getDuplicateEnvelopeCount() {
+        return duplicateEnvelopes.get();
+    }
+
+    public List<LatencyStats> getStats() {
+        return Arrays.stream(Stage.values()).map(s -> histograms.get(s).getStats(s.getName())).toList();
+    }
+
+    public enum Stage {
+        /**
+         * From the server delivery timestamp until the envelope has been read from the websocket.
+         */
+        SERVER_TO_READ("serverToRead"),
+        /**
+         * From reading the envelope until it's stored in the message cache.
+         */
+        READ_TO_CACHED("readToCached"),
+        /**
+         * From storing the envelope in the message cache until it's decrypted, including the time waiting for the
+         * decryption of the earlier envelopes of the batch, which are decrypted one after the other.
+         */
+        CACHED_TO_DECRYPTED("cachedToDecrypted"),
+        /**
+         * From decryption until the message has been processed and passed on to the receive handlers, including the
+         * time waiting for its receive lane.
+         */
+        DECRYPTED_TO_HANDLED("decryptedToHandled"),
+        /**
+         * From queueing a message for a receive handler until the handler has returned.
+         */
+        HANDLER_DELIVERY("handlerDelivery");
+
+        private final String name;
+
+        Stage(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
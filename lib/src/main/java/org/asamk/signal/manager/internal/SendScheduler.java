@@ -0,0 +1,200 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.SendPriority;
+import org.asamk.signal.manager.api.SendQueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits outgoing messages in priority order and paces them with a token bucket, so sustained sending doesn't run
+ * into the server's rate limits.
+ * The messages are still sent on the caller's thread, the scheduler only decides when.
+ * After the server has rate limited a send or requires a proof, e.g. a captcha, all sends are paused until its
+ * retry-after time has passed.
+ */
+public class SendScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendScheduler.class);
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofMinutes(1);
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final double tokensPerMilli;
+    private final double capacity;
+    // Not using synchronized, waiting in it would pin virtual threads to their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+    private final Map<SendPriority, PriorityStats> stats = new EnumMap<>(SendPriority.class);
+
+    private double tokens;
+    private long lastRefill = System.currentTimeMillis();
+    private long pausedUntil = 0;
+    private long nextSequence = 0;
+
+    /**
+     * @param ratePerMinute the sustained number of sends per minute, 0 to only pause after rate limits
+     */
+    public SendScheduler(final int ratePerMinute) {
+        this.tokensPerMilli = ratePerMinute / 60_000.0;
+        // Allow bursts of up to ten seconds worth of sends
+        this.capacity = Math.max(1, ratePerMinute / 6.0);
+        this.tokens = capacity;
+        for (final var priority : SendPriority.values()) {
+            stats.put(priority, new PriorityStats());
+        }
+    }
+
+    /**
+     * Wait until a send with the given priority may be started.
+     *
+     * @param weight the number of recipients the send is going to, with group members counted individually
+     */
+    public void acquire(final SendPriority priority, final int weight) {
+        final var queuedAt = System.nanoTime();
+        lock.lock();
+        try {
+            final var ticket = new Ticket(priority, nextSequence++, Math.min(Math.max(1, weight), capacity));
+            queue.add(ticket);
+            try {
+                while (true) {
+                    final var now = System.currentTimeMillis();
+                    refill(now);
+                    if (queue.peek() != ticket) {
+                        changed.await();
+                        continue;
+                    }
+                    final var waitMillis = getWaitMillis(ticket, now);
+                    if (waitMillis <= 0) {
+                        break;
+                    }
+                    changed.await(waitMillis, TimeUnit.MILLISECONDS);
+                }
+                if (tokensPerMilli > 0) {
+                    tokens -= ticket.cost();
+                }
+            } catch (InterruptedException e) {
+                // Don't keep the caller waiting, send right away
+                Thread.currentThread().interrupt();
+            } finally {
+                queue.remove(ticket);
+                final var s = stats.get(priority);
+                s.sent++;
+                s.waitTime.recordNanos(System.nanoTime() - queuedAt);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pause all sends, because the server has rate limited a send.
+     */
+    public void onRateLimited(final Optional<Long> retryAfterMillis) {
+        final var retryAfter = retryAfterMillis.orElse(DEFAULT_RETRY_AFTER.toMillis());
+        lock.lock();
+        try {
+            logger.debug("Rate limited by the server, pausing sends for {} ms", retryAfter);
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfter);
+            tokens = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pause all sends, because the server requires a proof, e.g. a captcha, before accepting more messages.
+     * Sending again before the retry-after time would only be rejected again.
+     */
+    public void onProofRequired(final long retryAfterSeconds) {
+        lock.lock();
+        try {
+            logger.warn("Server requires a proof to continue sending, pausing sends for {} s", retryAfterSeconds);
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfterSeconds * 1000);
+            tokens = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordRateLimited(final SendPriority priority) {
+        lock.lock();
+        try {
+            stats.get(priority).rateLimited++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordProofRequired(final SendPriority priority) {
+        lock.lock();
+        try {
+            stats.get(priority).proofRequired++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<SendQueueStats> getStats() {
+        lock.lock();
+        try {
+            return Arrays.stream(SendPriority.values()).map(p -> {
+                final var s = stats.get(p);
+                final var queued = (int) queue.stream().filter(t -> t.priority() == p).count();
+                return new SendQueueStats(p,
+                        queued,
+                        s.sent,
+                        s.rateLimited,
+                        s.proofRequired,
+                        s.waitTime.getStats(p.name()));
+            }).toList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+        lastRefill = now;
+    }
+
+    private long getWaitMillis(final Ticket ticket, final long now) {
+        if (now < pausedUntil) {
+            return pausedUntil - now;
+        }
+        if (tokensPerMilli <= 0 || tokens >= ticket.cost()) {
+            return 0;
+        }
+        return (long) Math.ceil((ticket.cost() - tokens) / tokensPerMilli);
+    }
+
+    private record Ticket(SendPriority priority, long sequence, double cost) implements Comparable<Ticket> {
+
+        @Override
+        public int compareTo(final Ticket o) {
+            final var c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static final class PriorityStats {
+
+        private final LatencyHistogram waitTime = new LatencyHistogram();
+        private long sent;
+        private long rateLimited;
+        private long proofRequired;
+    }
+}
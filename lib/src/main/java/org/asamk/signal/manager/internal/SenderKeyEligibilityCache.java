@@ -0,0 +1,72 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.CacheStats;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.whispersystems.signalservice.api.push.DistributionId;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers for each group, which members can receive sender key messages.
+ * An entry is only used for the same set of members and is dropped, when the profile, profile key or identity of
+ * one of its members changes. Entries expire well before profiles are refreshed, so the eligibility check still sees
+ * refreshed profiles.
+ */
+public class SenderKeyEligibilityCache {
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(30);
+
+    private final Map<DistributionId, Entry> entries = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long evictions;
+
+    /**
+     * @return the sender key capable members, or null if they need to be determined again
+     */
+    public synchronized Set<RecipientId> get(DistributionId distributionId, Set<RecipientId> recipientIds) {
+        final var entry = entries.get(distributionId);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt() > MAX_AGE.toMillis()) {
+            entries.remove(distributionId);
+            evictions++;
+            misses++;
+            return null;
+        }
+        if (entry == null || !entry.recipientIds().equals(recipientIds)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.senderKeyTargets();
+    }
+
+    public synchronized void put(
+            DistributionId distributionId, Set<RecipientId> recipientIds, Set<RecipientId> senderKeyTargets
+    ) {
+        entries.put(distributionId,
+                new Entry(Set.copyOf(recipientIds), Set.copyOf(senderKeyTargets), System.currentTimeMillis()));
+    }
+
+    public synchronized void invalidate(RecipientId recipientId) {
+        if (entries.values().removeIf(entry -> entry.recipientIds().contains(recipientId))) {
+            invalidations++;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        if (!entries.isEmpty()) {
+            entries.clear();
+            invalidations++;
+        }
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats("senderKeyEligibility", hits, misses, invalidations, evictions, entries.size());
+    }
+
+    private record Entry(Set<RecipientId> recipientIds, Set<RecipientId> senderKeyTargets, long createdAt) {}
+}
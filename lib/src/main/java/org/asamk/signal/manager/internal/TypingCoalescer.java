@@ -0,0 +1,70 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.SendMessageResult;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Suppresses typing STARTED messages to a recipient or group, while the previous STARTED message is still shown.
+ * Clients show a typing indicator for 15 seconds, so repeating it more often than every 10 seconds has no effect.
+ * A typing STOPPED message or a sent message ends the indicator, so the next STARTED message is sent again.
+ */
+public class TypingCoalescer {
+
+    private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(10);
+    private static final int CLEANUP_THRESHOLD = 1000;
+
+    private final Map<Target, Started> started = new HashMap<>();
+
+    /**
+     * @return the results of the previous STARTED message, if a new one isn't necessary, otherwise null
+     */
+    public synchronized List<SendMessageResult> getResultsIfRedundant(Target target) {
+        final var entry = started.get(target);
+        if (entry == null || System.currentTimeMillis() - entry.sentAt() >= REFRESH_INTERVAL.toMillis()) {
+            return null;
+        }
+        return entry.results();
+    }
+
+    public synchronized void onStarted(Target target, List<SendMessageResult> results) {
+        if (results.stream().noneMatch(SendMessageResult::isSuccess)) {
+            started.remove(target);
+            return;
+        }
+        if (started.size() >= CLEANUP_THRESHOLD) {
+            final var now = System.currentTimeMillis();
+            started.values().removeIf(e -> now - e.sentAt() >= REFRESH_INTERVAL.toMillis());
+        }
+        started.put(target, new Started(System.currentTimeMillis(), results));
+    }
+
+    /**
+     * Called when a typing STOPPED message or a normal message has been sent to the target.
+     */
+    public synchronized void onStopped(Target target) {
+        started.remove(target);
+    }
+
+    public sealed interface Target {
+
+        static Target of(RecipientId recipientId) {
+            return new Recipient(recipientId);
+        }
+
+        static Target of(GroupId groupId) {
+            return new Group(groupId);
+        }
+
+        record Recipient(RecipientId recipientId) implements Target {}
+
+        record Group(GroupId groupId) implements Target {}
+    }
+
+    private record Started(long sentAt, List<SendMessageResult> results) {}
+}
@@ -2,7 +2,10 @@ package org.asamk.signal.manager.storage;
 
 import com.zaxxer.hikari.HikariDataSource;
 
+import org.asamk.signal.manager.api.DatabaseProfile;
 import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.attachments.AttachmentUploadStore;
+import org.asamk.signal.manager.storage.envelopes.ReceivedEnvelopeStore;
 import org.asamk.signal.manager.storage.groups.GroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
 import org.asamk.signal.manager.storage.incomingmessages.IncomingMessagesStore;
@@ -12,7 +15,6 @@ import org.asamk.signal.manager.storage.prekeys.PreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.SignedPreKeyStore;
 import org.asamk.signal.manager.storage.recipients.CdsiStore;
 import org.asamk.signal.manager.storage.recipients.RecipientStore;
-import org.asamk.signal.manager.storage.sendLog.MessageSendLogStore;
 import org.asamk.signal.manager.storage.senderKeys.SenderKeyRecordStore;
 import org.asamk.signal.manager.storage.senderKeys.SenderKeySharedStore;
 import org.asamk.signal.manager.storage.sessions.SessionStore;
@@ -33,20 +35,19 @@ import java.util.UUID;
 public class AccountDatabase extends Database {
 
     private static final Logger logger = LoggerFactory.getLogger(AccountDatabase.class);
-    private static final long DATABASE_VERSION = 19;
+    private static final long DATABASE_VERSION = 22;
 
-    private AccountDatabase(final HikariDataSource dataSource) {
-        super(logger, DATABASE_VERSION, dataSource);
+    private AccountDatabase(final HikariDataSource dataSource, final HikariDataSource readDataSource) {
+        super(logger, DATABASE_VERSION, dataSource, readDataSource);
     }
 
-    public static AccountDatabase init(File databaseFile) throws SQLException {
-        return initDatabase(databaseFile, AccountDatabase::new);
+    public static AccountDatabase init(File databaseFile, DatabaseProfile profile) throws SQLException {
+        return initDatabase(databaseFile, profile, AccountDatabase::new);
     }
 
     @Override
     protected void createDatabase(final Connection connection) throws SQLException {
         RecipientStore.createSql(connection);
-        MessageSendLogStore.createSql(connection);
         StickerStore.createSql(connection);
         PreKeyStore.createSql(connection);
         SignedPreKeyStore.createSql(connection);
@@ -59,6 +60,8 @@ public class AccountDatabase extends Database {
         KeyValueStore.createSql(connection);
         CdsiStore.createSql(connection);
         IncomingMessagesStore.createSql(connection);
+        ReceivedEnvelopeStore.createSql(connection);
+        AttachmentUploadStore.createSql(connection);
     }
 
     @Override
@@ -541,5 +544,44 @@ public class AccountDatabase extends Database {
                                         """);
             }
         }
+        if (oldVersion < 20) {
+            logger.debug("Updating database: Adding received_envelope_filter table");
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("""
+                                        CREATE TABLE received_envelope_filter (
+                                          _id INTEGER PRIMARY KEY,
+                                          generation INTEGER NOT NULL,
+                                          page INTEGER NOT NULL,
+                                          count INTEGER NOT NULL,
+                                          bits BLOB NOT NULL,
+                                          UNIQUE(generation, page)
+                                        ) STRICT;
+                                        """);
+            }
+        }
+        if (oldVersion < 21) {
+            logger.debug("Updating database: Adding attachment_upload table");
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("""
+                                        CREATE TABLE attachment_upload (
+                                          _id INTEGER PRIMARY KEY,
+                                          content_hash BLOB NOT NULL,
+                                          size INTEGER NOT NULL,
+                                          pointer BLOB NOT NULL,
+                                          expires_at INTEGER NOT NULL,
+                                          UNIQUE(content_hash, size)
+                                        ) STRICT;
+                                        """);
+            }
+        }
+        if (oldVersion < 22) {
+            logger.debug("Updating database: Replacing message send log with hourly buckets");
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("""
+                                        DROP TABLE message_send_log;
+                                        DROP TABLE message_send_log_content;
+                                        """);
+            }
+        }
     }
 }
@@ -11,6 +11,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
 public class AttachmentStore {
@@ -35,6 +37,23 @@ public class AttachmentStore {
         storeAttachment(getAttachmentFile(pointer), storer);
     }
 
+    /**
+     * Store a downloaded attachment.
+     * The downloader gets a file next to the attachment file to download the encrypted attachment to, so the
+     * download stays on the same file system and never goes through the global temp directory.
+     */
+    public void downloadAttachment(
+            final SignalServiceAttachmentPointer pointer, final AttachmentDownloader downloader
+    ) throws IOException {
+        final var attachmentFile = getAttachmentFile(pointer);
+        final var downloadFile = new File(attachmentFile.getPath() + ".download");
+        try {
+            storeAttachment(attachmentFile, outputStream -> downloader.download(downloadFile, outputStream));
+        } finally {
+            Files.deleteIfExists(downloadFile.toPath());
+        }
+    }
+
     public File getAttachmentFile(final SignalServiceAttachmentPointer pointer) {
         return getAttachmentFile(pointer.getRemoteId(),
                 pointer.getFileName(),
@@ -48,8 +67,18 @@ public class AttachmentStore {
 
     private void storeAttachment(final File attachmentFile, final AttachmentStorer storer) throws IOException {
         createAttachmentsDir();
-        try (OutputStream output = new FileOutputStream(attachmentFile)) {
-            storer.store(output);
+        // Write to a sibling file first, so a partially written attachment is never visible under its final name
+        final var partFile = new File(attachmentFile.getPath() + ".part");
+        try {
+            try (OutputStream output = new FileOutputStream(partFile)) {
+                storer.store(output);
+            }
+            Files.move(partFile.toPath(),
+                    attachmentFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partFile.toPath());
         }
     }
 
@@ -86,4 +115,10 @@ public class AttachmentStore {
 
         void store(OutputStream outputStream) throws IOException;
     }
+
+    @FunctionalInterface
+    public interface AttachmentDownloader {
+
+        void download(File downloadFile, OutputStream outputStream) throws IOException;
+    }
 }
@@ -0,0 +1,133 @@
+package org.asamk.signal.manager.storage;
+
+import org.asamk.signal.manager.api.CacheStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size bounded in-memory cache, that drops the least recently used entries.
+ * The entries are split into stripes with their own lock, so threads only contend when they access the same stripe.
+ * The stripe is chosen by a group of the key, so all entries of a group can be invalidated without a full scan.
+ */
+public class BoundedCache<G, K, V> {
+
+    private static final int STRIPE_COUNT = 16;
+
+    private final String name;
+    private final Function<K, G> getGroup;
+    private final Stripe<K, V>[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity maximum number of cached entries, 0 disables the cache
+     * @param getGroup returns the group of a key, used by {@link #invalidateGroup}
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(final String name, final int capacity, final Function<K, G> getGroup) {
+        this.name = name;
+        this.getGroup = getGroup;
+        final var stripeCapacity = capacity <= 0 ? 0 : Math.max(1, capacity / STRIPE_COUNT);
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for (var i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe<>(stripeCapacity, evictions);
+        }
+    }
+
+    /**
+     * @return the cached value or null, if the key isn't cached
+     */
+    public V get(K key) {
+        final var stripe = getStripe(getGroup.apply(key));
+        final V value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        final var stripe = getStripe(getGroup.apply(key));
+        if (stripe.capacity == 0) {
+            return;
+        }
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    public void invalidate(K key) {
+        final var stripe = getStripe(getGroup.apply(key));
+        synchronized (stripe) {
+            if (stripe.remove(key) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateGroup(G group) {
+        final var stripe = getStripe(group);
+        synchronized (stripe) {
+            if (stripe.keySet().removeIf(key -> group.equals(getGroup.apply(key)))) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (final var stripe : stripes) {
+            synchronized (stripe) {
+                if (!stripe.isEmpty()) {
+                    stripe.clear();
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    public CacheStats getStats() {
+        var size = 0;
+        for (final var stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return new CacheStats(name, hits.sum(), misses.sum(), invalidations.sum(), evictions.sum(), size);
+    }
+
+    private Stripe<K, V> getStripe(G group) {
+        return stripes[Math.floorMod(group.hashCode(), STRIPE_COUNT)];
+    }
+
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        private Stripe(final int capacity, final LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -3,42 +3,81 @@ package org.asamk.signal.manager.storage;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import org.asamk.signal.manager.api.DatabaseProfile;
 import org.slf4j.Logger;
 import org.sqlite.SQLiteConfig;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.function.Function;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 public abstract class Database implements AutoCloseable {
 
+    private static final long PERFORMANCE_MMAP_SIZE = 256L * 1024 * 1024;
+    // Negative values are in KiB instead of pages
+    private static final int PERFORMANCE_CACHE_SIZE = -16_000;
+    private static final int PERFORMANCE_MINIMUM_IDLE = 4;
+    // Only waited for if other writes are already queued, a single writer doesn't pay for it
+    private static final long GROUP_COMMIT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final int MAX_GROUP_SIZE = 500;
+
     private final Logger logger;
     private final long databaseVersion;
     private final HikariDataSource dataSource;
+    private final HikariDataSource readDataSource;
+
+    private final BlockingQueue<PendingWrite<?>> pendingWrites = new LinkedBlockingQueue<>();
+    private final PendingWrite<?> stopWriter = new PendingWrite<>(null);
+    private final Object writerLock = new Object();
+    private Thread writerThread;
+    private Connection writerConnection;
+    private boolean closed;
 
-    protected Database(final Logger logger, final long databaseVersion, final HikariDataSource dataSource) {
+    protected Database(
+            final Logger logger,
+            final long databaseVersion,
+            final HikariDataSource dataSource,
+            final HikariDataSource readDataSource
+    ) {
         this.logger = logger;
         this.databaseVersion = databaseVersion;
         this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
     }
 
     public static <T extends Database> T initDatabase(
-            File databaseFile, Function<HikariDataSource, T> newDatabase
+            File databaseFile,
+            DatabaseProfile profile,
+            BiFunction<HikariDataSource, HikariDataSource, T> newDatabase
     ) throws SQLException {
         HikariDataSource dataSource = null;
+        HikariDataSource readDataSource = null;
 
         try {
-            dataSource = getHikariDataSource(databaseFile.getAbsolutePath());
+            dataSource = getHikariDataSource(databaseFile.getAbsolutePath(), profile, false);
+            setJournalMode(dataSource, profile);
+            readDataSource = getHikariDataSource(databaseFile.getAbsolutePath(), profile, true);
 
-            final var result = newDatabase.apply(dataSource);
+            final var result = newDatabase.apply(dataSource, readDataSource);
             result.initDb();
             dataSource = null;
+            readDataSource = null;
             return result;
         } finally {
             if (dataSource != null) {
                 dataSource.close();
             }
+            if (readDataSource != null) {
+                readDataSource.close();
+            }
         }
     }
 
@@ -46,11 +85,149 @@ public abstract class Database implements AutoCloseable {
         return dataSource.getConnection();
     }
 
+    /**
+     * Get a connection from the read-only pool, so reads don't queue behind the writer thread's connection.
+     * With the write-ahead log of {@link DatabaseProfile#PERFORMANCE}, reads also don't wait for running write
+     * transactions. With the rollback journal of {@link DatabaseProfile#DEFAULT}, SQLite still blocks reads while a
+     * write transaction commits, they wait for it up to the busy timeout.
+     * Changes submitted with {@link #executeWrite} are visible, once that call has returned.
+     */
+    public final Connection getReadConnection() throws SQLException {
+        return readDataSource.getConnection();
+    }
+
+    /**
+     * Run the task on the writer thread and wait until its transaction has been committed.
+     * Tasks that are submitted concurrently share one transaction, each task runs in its own savepoint, so a failing
+     * task doesn't affect the others. The task must not commit or change the auto commit mode of the connection.
+     */
+    public final <T> T executeWrite(WriteTask<T> task) throws SQLException {
+        synchronized (writerLock) {
+            if (Thread.currentThread() == writerThread) {
+                // Called from another write task, it's already part of the current transaction
+                return task.execute(writerConnection);
+            }
+        }
+        try {
+            return submitWrite(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for database write", e);
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case SQLException ex -> throw ex;
+                case RuntimeException ex -> throw ex;
+                default -> throw new SQLException("Database write failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Queue the task for the writer thread, the future completes once its transaction has been committed.
+     */
+    public final <T> CompletableFuture<T> submitWrite(WriteTask<T> task) {
+        final var pendingWrite = new PendingWrite<>(task);
+        synchronized (writerLock) {
+            if (closed) {
+                pendingWrite.future.completeExceptionally(new SQLException("Database has been closed"));
+                return pendingWrite.future;
+            }
+            if (writerThread == null) {
+                writerThread = Thread.ofPlatform().name("db-writer").daemon().start(this::runWriter);
+            }
+            pendingWrites.add(pendingWrite);
+        }
+        return pendingWrite.future;
+    }
+
     @Override
     public void close() {
+        final Thread writer;
+        synchronized (writerLock) {
+            closed = true;
+            writer = writerThread;
+            if (writer != null) {
+                pendingWrites.add(stopWriter);
+            }
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        readDataSource.close();
         dataSource.close();
     }
 
+    private void runWriter() {
+        final var group = new ArrayList<PendingWrite<?>>();
+        while (true) {
+            try {
+                group.add(pendingWrites.take());
+                pendingWrites.drainTo(group, MAX_GROUP_SIZE - group.size());
+                if (group.size() > 1) {
+                    final var deadline = System.nanoTime() + GROUP_COMMIT_WINDOW_NANOS;
+                    while (group.size() < MAX_GROUP_SIZE && group.getLast() != stopWriter) {
+                        final var next = pendingWrites.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        group.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            final var stop = group.remove(stopWriter);
+            if (!group.isEmpty()) {
+                commitGroup(group);
+            }
+            group.clear();
+            if (stop) {
+                break;
+            }
+        }
+    }
+
+    private void commitGroup(final List<PendingWrite<?>> group) {
+        final var succeeded = new ArrayList<PendingWrite<?>>(group.size());
+        try (final var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (writerLock) {
+                writerConnection = connection;
+            }
+            try {
+                for (final var pendingWrite : group) {
+                    final var savepoint = connection.setSavepoint();
+                    try {
+                        pendingWrite.execute(connection);
+                        connection.releaseSavepoint(savepoint);
+                        succeeded.add(pendingWrite);
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback(savepoint);
+                        pendingWrite.future.completeExceptionally(e);
+                    }
+                }
+                connection.commit();
+            } finally {
+                synchronized (writerLock) {
+                    writerConnection = null;
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to commit {} database writes", group.size(), e);
+            for (final var pendingWrite : group) {
+                pendingWrite.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (final var pendingWrite : succeeded) {
+            pendingWrite.complete();
+        }
+    }
+
     protected final void initDb() throws SQLException {
         try (final var connection = dataSource.getConnection()) {
             connection.setAutoCommit(false);
@@ -88,16 +265,75 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
-    private static HikariDataSource getHikariDataSource(final String databaseFile) {
+    /**
+     * The journal mode is stored in the database file, so it's switched once here, instead of on every new
+     * connection. This also switches a database back to the rollback journal, if the profile is changed again.
+     */
+    private static void setJournalMode(
+            final HikariDataSource dataSource, final DatabaseProfile profile
+    ) throws SQLException {
+        final var journalMode = switch (profile) {
+            case DEFAULT -> SQLiteConfig.JournalMode.DELETE;
+            case PERFORMANCE -> SQLiteConfig.JournalMode.WAL;
+        };
+        try (final var connection = dataSource.getConnection()) {
+            try (final var statement = connection.createStatement()) {
+                statement.executeQuery("PRAGMA journal_mode = " + journalMode.getValue()).close();
+            }
+        }
+    }
+
+    private static HikariDataSource getHikariDataSource(
+            final String databaseFile, final DatabaseProfile profile, final boolean readOnly
+    ) {
         final var sqliteConfig = new SQLiteConfig();
         sqliteConfig.setBusyTimeout(60_000);
-        sqliteConfig.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        if (readOnly) {
+            sqliteConfig.setReadOnly(true);
+        } else {
+            sqliteConfig.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        }
+        if (profile == DatabaseProfile.PERFORMANCE) {
+            // With the write-ahead log NORMAL only syncs on checkpoints, a crash can't corrupt the database
+            sqliteConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+            sqliteConfig.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(PERFORMANCE_MMAP_SIZE));
+            sqliteConfig.setCacheSize(PERFORMANCE_CACHE_SIZE);
+            sqliteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        }
 
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl("jdbc:sqlite:" + databaseFile);
         config.setDataSourceProperties(sqliteConfig.toProperties());
-        config.setMinimumIdle(1);
+        // The page cache and the prepared schema belong to a connection, keep more of them open
+        config.setMinimumIdle(profile == DatabaseProfile.PERFORMANCE ? PERFORMANCE_MINIMUM_IDLE : 1);
         config.setConnectionInitSql("PRAGMA foreign_keys=ON");
+        // sqlite-jdbc doesn't allow changing the flag of an open connection, so it has to match
+        config.setReadOnly(readOnly);
         return new HikariDataSource(config);
     }
+
+    @FunctionalInterface
+    public interface WriteTask<T> {
+
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private static final class PendingWrite<T> {
+
+        private final WriteTask<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private PendingWrite(final WriteTask<T> task) {
+            this.task = task;
+        }
+
+        private void execute(final Connection connection) throws SQLException {
+            result = task.execute(connection);
+        }
+
+        private void complete() {
+            future.complete(result);
+        }
+    }
 }
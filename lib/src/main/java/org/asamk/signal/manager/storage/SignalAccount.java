@@ -6,15 +6,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.asamk.signal.manager.Settings;
 import org.asamk.signal.manager.api.Contact;
 import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.helper.RecipientAddressResolver;
+import org.asamk.signal.manager.storage.attachments.AttachmentUploadStore;
 import org.asamk.signal.manager.storage.configuration.ConfigurationStore;
 import org.asamk.signal.manager.storage.configuration.LegacyConfigurationStore;
 import org.asamk.signal.manager.storage.contacts.ContactsStore;
 import org.asamk.signal.manager.storage.contacts.LegacyJsonContactsStore;
+import org.asamk.signal.manager.storage.envelopes.ReceivedEnvelopeStore;
 import org.asamk.signal.manager.storage.groups.GroupInfoV1;
 import org.asamk.signal.manager.storage.groups.GroupStore;
 import org.asamk.signal.manager.storage.groups.LegacyGroupStore;
@@ -24,7 +27,9 @@ import org.asamk.signal.manager.storage.identities.SignalIdentityKeyStore;
 import org.asamk.signal.manager.storage.incomingmessages.IncomingMessagesStore;
 import org.asamk.signal.manager.storage.keyValue.KeyValueEntry;
 import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
+import org.asamk.signal.manager.storage.messageCache.FileMessageCache;
 import org.asamk.signal.manager.storage.messageCache.MessageCache;
+import org.asamk.signal.manager.storage.messageCache.SegmentMessageCache;
 import org.asamk.signal.manager.storage.prekeys.KyberPreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.LegacyPreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.LegacySignedPreKeyStore;
@@ -98,11 +103,16 @@ import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -115,6 +125,10 @@ public class SignalAccount implements Closeable {
 
     private static final int MINIMUM_STORAGE_VERSION = 1;
     private static final int CURRENT_STORAGE_VERSION = 8;
+    private static final Duration SAVE_DELAY = Duration.ofSeconds(1);
+    private static final Duration SAVE_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("account-save").daemon().factory());
 
     private final Object LOCK = new Object();
 
@@ -122,6 +136,8 @@ public class SignalAccount implements Closeable {
 
     private final FileChannel fileChannel;
     private final FileLock lock;
+    private boolean dirty = false;
+    private ScheduledFuture<?> scheduledSave;
 
     private int previousStorageVersion;
 
@@ -171,6 +187,8 @@ public class SignalAccount implements Closeable {
 
     private MessageCache messageCache;
     private MessageSendLogStore messageSendLogStore;
+    private ReceivedEnvelopeStore receivedEnvelopeStore;
+    private AttachmentUploadStore attachmentUploadStore;
     private IncomingMessagesStore incomingMessagesStore;
 
     private AccountDatabase accountDatabase;
@@ -239,7 +257,7 @@ public class SignalAccount implements Closeable {
 
         signalAccount.previousStorageVersion = CURRENT_STORAGE_VERSION;
         signalAccount.migrateLegacyConfigs();
-        signalAccount.save();
+        signalAccount.saveNow();
 
         return signalAccount;
     }
@@ -304,7 +322,7 @@ public class SignalAccount implements Closeable {
         pniAccountData.getSessionStore().archiveAllSessions();
         clearAllPreKeys();
         getKeyValueStore().storeEntry(lastRecipientsRefresh, null);
-        save();
+        saveNow();
     }
 
     public void finishLinking(
@@ -314,7 +332,7 @@ public class SignalAccount implements Closeable {
         this.deviceId = deviceId;
         setPreKeys(ServiceIdType.ACI, aciPreKeys);
         setPreKeys(ServiceIdType.PNI, pniPreKeys);
-        save();
+        saveNow();
     }
 
     public void finishRegistration(
@@ -337,7 +355,7 @@ public class SignalAccount implements Closeable {
         this.pniAccountData.setServiceId(pni);
         this.registrationLockPin = pin;
         getKeyValueStore().storeEntry(lastReceiveTimestamp, 0L);
-        save();
+        saveNow();
 
         setPreKeys(ServiceIdType.ACI, aciPreKeys);
         setPreKeys(ServiceIdType.PNI, pniPreKeys);
@@ -401,6 +419,10 @@ public class SignalAccount implements Closeable {
         return new File(getUserPath(dataPath, account), "msg-cache");
     }
 
+    private static File getMessageLogPath(File dataPath, String account) {
+        return new File(getUserPath(dataPath, account), "msg-log");
+    }
+
     private static File getStorageManifestFile(File dataPath, String account) {
         return new File(getUserPath(dataPath, account), "storage-manifest");
     }
@@ -919,8 +941,43 @@ public class SignalAccount implements Closeable {
         }
     }
 
+    /**
+     * Mark the account file as changed, it's written by a background thread shortly after.
+     * Multiple changes within {@link #SAVE_DELAY} are written together.
+     */
     private void save() {
         synchronized (fileChannel) {
+            dirty = true;
+            if (scheduledSave == null) {
+                scheduledSave = saveExecutor.schedule(this::flush, SAVE_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write the account file immediately, for changes that must not be lost, like the registration state and keys.
+     */
+    private void saveNow() {
+        synchronized (fileChannel) {
+            dirty = true;
+            flush();
+        }
+    }
+
+    /**
+     * Write pending changes to the account file.
+     * If writing fails, the changes stay pending and the save is retried after {@link #SAVE_RETRY_DELAY}.
+     */
+    public void flush() {
+        synchronized (fileChannel) {
+            if (scheduledSave != null) {
+                scheduledSave.cancel(false);
+                scheduledSave = null;
+            }
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
             final var base64 = Base64.getEncoder();
             final var storage = new Storage(CURRENT_STORAGE_VERSION,
                     serviceEnvironment.name(),
@@ -949,6 +1006,10 @@ public class SignalAccount implements Closeable {
                 }
             } catch (Exception e) {
                 logger.error("Error saving file: {}", e.getMessage(), e);
+                dirty = true;
+                scheduledSave = saveExecutor.schedule(this::flush,
+                        SAVE_RETRY_DELAY.toMillis(),
+                        TimeUnit.MILLISECONDS);
             }
         }
     }
@@ -995,7 +1056,7 @@ public class SignalAccount implements Closeable {
         accountData.getPreKeyStore().removeAllPreKeys();
         accountData.getSignedPreKeyStore().removeAllSignedPreKeys();
         accountData.getKyberPreKeyStore().removeAllKyberPreKeys();
-        save();
+        saveNow();
     }
 
     private void setPreKeys(ServiceIdType serviceIdType, PreKeyCollection preKeyCollection) {
@@ -1011,7 +1072,7 @@ public class SignalAccount implements Closeable {
         addSignedPreKey(serviceIdType, preKeyCollection.getSignedPreKey());
         addLastResortKyberPreKey(serviceIdType, preKeyCollection.getLastResortKyberPreKey());
 
-        save();
+        saveNow();
     }
 
     public void resetPreKeyOffsets(final ServiceIdType serviceIdType) {
@@ -1019,7 +1080,7 @@ public class SignalAccount implements Closeable {
         preKeyMetadata.nextPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.nextSignedPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.activeSignedPreKeyId = -1;
-        save();
+        saveNow();
     }
 
     private static int getRandomPreKeyIdOffset() {
@@ -1043,7 +1104,7 @@ public class SignalAccount implements Closeable {
             accountData.getPreKeyStore().storePreKey(record.getId(), record);
             preKeyMetadata.nextPreKeyId = (preKeyMetadata.nextPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         }
-        save();
+        saveNow();
     }
 
     public void addSignedPreKey(ServiceIdType serviceIdType, SignedPreKeyRecord record) {
@@ -1059,14 +1120,14 @@ public class SignalAccount implements Closeable {
         accountData.getSignedPreKeyStore().storeSignedPreKey(record.getId(), record);
         preKeyMetadata.nextSignedPreKeyId = (preKeyMetadata.nextSignedPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         preKeyMetadata.activeSignedPreKeyId = record.getId();
-        save();
+        saveNow();
     }
 
     public void resetKyberPreKeyOffsets(final ServiceIdType serviceIdType) {
         final var preKeyMetadata = getAccountData(serviceIdType).getPreKeyMetadata();
         preKeyMetadata.nextKyberPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.activeLastResortKyberPreKeyId = -1;
-        save();
+        saveNow();
     }
 
     public void addKyberPreKeys(ServiceIdType serviceIdType, List<KyberPreKeyRecord> records) {
@@ -1088,7 +1149,7 @@ public class SignalAccount implements Closeable {
             accountData.getKyberPreKeyStore().storeKyberPreKey(record.getId(), record);
             preKeyMetadata.nextKyberPreKeyId = (preKeyMetadata.nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         }
-        save();
+        saveNow();
     }
 
     public void addLastResortKyberPreKey(ServiceIdType serviceIdType, KyberPreKeyRecord record) {
@@ -1106,7 +1167,7 @@ public class SignalAccount implements Closeable {
         accountData.getKyberPreKeyStore().storeLastResortKyberPreKey(record.getId(), record);
         preKeyMetadata.activeLastResortKyberPreKeyId = record.getId();
         preKeyMetadata.nextKyberPreKeyId = (preKeyMetadata.nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
-        save();
+        saveNow();
     }
 
     public int getPreviousStorageVersion() {
@@ -1224,14 +1285,34 @@ public class SignalAccount implements Closeable {
     }
 
     public MessageCache getMessageCache() {
-        return getOrCreate(() -> messageCache,
-                () -> messageCache = new MessageCache(getMessageCachePath(dataPath, accountPath)));
+        return getOrCreate(() -> messageCache, () -> {
+            final var messageCachePath = getMessageCachePath(dataPath, accountPath);
+            if (settings.messageCacheType() == MessageCacheType.SEGMENT_LOG) {
+                try {
+                    messageCache = new SegmentMessageCache(getMessageLogPath(dataPath, accountPath),
+                            messageCachePath);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to open message log", e);
+                }
+            } else {
+                final var fileMessageCache = new FileMessageCache(messageCachePath);
+                try {
+                    SegmentMessageCache.exportMessages(getMessageLogPath(dataPath, accountPath),
+                            fileMessageCache,
+                            getRecipientStore()::create);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to move messages from message log", e);
+                }
+                messageCache = fileMessageCache;
+            }
+        });
     }
 
     public AccountDatabase getAccountDatabase() {
         return getOrCreate(() -> accountDatabase, () -> {
             try {
-                accountDatabase = AccountDatabase.init(getDatabaseFile(dataPath, accountPath));
+                accountDatabase = AccountDatabase.init(getDatabaseFile(dataPath, accountPath),
+                        settings.databaseProfile());
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
@@ -1244,6 +1325,16 @@ public class SignalAccount implements Closeable {
                         settings.disableMessageSendLog()));
     }
 
+    public ReceivedEnvelopeStore getReceivedEnvelopeStore() {
+        return getOrCreate(() -> receivedEnvelopeStore,
+                () -> receivedEnvelopeStore = new ReceivedEnvelopeStore(getAccountDatabase()));
+    }
+
+    public AttachmentUploadStore getAttachmentUploadStore() {
+        return getOrCreate(() -> attachmentUploadStore,
+                () -> attachmentUploadStore = new AttachmentUploadStore(getAccountDatabase()));
+    }
+
     public CredentialsProvider getCredentialsProvider() {
         return new CredentialsProvider() {
             @Override
@@ -1273,13 +1364,17 @@ public class SignalAccount implements Closeable {
         };
     }
 
+    public Settings getSettings() {
+        return settings;
+    }
+
     public String getNumber() {
         return number;
     }
 
     public void setNumber(final String number) {
         this.number = number;
-        save();
+        saveNow();
     }
 
     public String getUsername() {
@@ -1305,7 +1400,7 @@ public class SignalAccount implements Closeable {
 
     public void setServiceEnvironment(final ServiceEnvironment serviceEnvironment) {
         this.serviceEnvironment = serviceEnvironment;
-        save();
+        saveNow();
     }
 
     public AccountAttributes getAccountAttributes(String registrationLock) {
@@ -1338,7 +1433,7 @@ public class SignalAccount implements Closeable {
 
     public void setAci(final ACI aci) {
         this.aciAccountData.setServiceId(aci);
-        save();
+        saveNow();
     }
 
     public PNI getPni() {
@@ -1355,7 +1450,7 @@ public class SignalAccount implements Closeable {
         this.pniAccountData.setServiceId(updatedPni);
         getRecipientTrustedResolver().resolveSelfRecipientTrusted(getSelfRecipientAddress());
         trustSelfIdentity(ServiceIdType.PNI);
-        save();
+        saveNow();
     }
 
     public void setNewPniIdentity(
@@ -1377,7 +1472,7 @@ public class SignalAccount implements Closeable {
             accountData.getKyberPreKeyStore().removeKyberPreKey(lastResortKyberPreKey.getId());
             addLastResortKyberPreKey(ServiceIdType.PNI, lastResortKyberPreKey);
         }
-        save();
+        saveNow();
     }
 
     public SignalServiceAddress getSelfAddress() {
@@ -1435,7 +1530,7 @@ public class SignalAccount implements Closeable {
     public void setPniIdentityKeyPair(final IdentityKeyPair identityKeyPair) {
         pniAccountData.setIdentityKeyPair(identityKeyPair);
         trustSelfIdentity(ServiceIdType.PNI);
-        save();
+        saveNow();
     }
 
     public String getPassword() {
@@ -1444,7 +1539,7 @@ public class SignalAccount implements Closeable {
 
     public void setRegistrationLockPin(final String registrationLockPin) {
         this.registrationLockPin = registrationLockPin;
-        save();
+        saveNow();
     }
 
     public String getRegistrationLockPin() {
@@ -1469,7 +1564,7 @@ public class SignalAccount implements Closeable {
     public MasterKey getOrCreatePinMasterKey() {
         if (pinMasterKey == null) {
             pinMasterKey = KeyUtils.createMasterKey();
-            save();
+            saveNow();
         }
         return pinMasterKey;
     }
@@ -1576,7 +1671,7 @@ public class SignalAccount implements Closeable {
 
     public void setRegistered(final boolean registered) {
         this.registered = registered;
-        save();
+        saveNow();
     }
 
     public boolean isMultiDevice() {
@@ -1635,12 +1730,23 @@ public class SignalAccount implements Closeable {
     @Override
     public void close() {
         synchronized (fileChannel) {
-            if (accountDatabase != null) {
-                accountDatabase.close();
+            if (fileChannel.isOpen()) {
+                flush();
+            }
+            if (scheduledSave != null) {
+                // The file is closed below, so a failed save can't be retried anymore
+                scheduledSave.cancel(false);
+                scheduledSave = null;
             }
             if (messageSendLogStore != null) {
                 messageSendLogStore.close();
             }
+            if (accountDatabase != null) {
+                accountDatabase.close();
+            }
+            if (messageCache != null) {
+                messageCache.close();
+            }
             try {
                 try {
                     lock.close();
@@ -1779,7 +1885,9 @@ public class SignalAccount implements Closeable {
 
         public SessionStore getSessionStore() {
             return getOrCreate(() -> sessionStore,
-                    () -> sessionStore = new SessionStore(getAccountDatabase(), serviceIdType));
+                    () -> sessionStore = new SessionStore(getAccountDatabase(),
+                            serviceIdType,
+                            settings.sessionCacheSize()));
         }
 
         public SignalIdentityKeyStore getIdentityKeyStore() {
@@ -0,0 +1,135 @@
+package org.asamk.signal.manager.storage.attachments;
+
+import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.internal.push.AttachmentPointer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Remembers the attachments uploaded to the CDN by their content hash, so the same content can be sent again without
+ * uploading it another time, as long as the upload is still available.
+ */
+public class AttachmentUploadStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentUploadStore.class);
+    private static final String TABLE_ATTACHMENT_UPLOAD = "attachment_upload";
+
+    private final Database database;
+
+    public static void createSql(Connection connection) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE attachment_upload (
+                                      _id INTEGER PRIMARY KEY,
+                                      content_hash BLOB NOT NULL,
+                                      size INTEGER NOT NULL,
+                                      pointer BLOB NOT NULL,
+                                      expires_at INTEGER NOT NULL,
+                                      UNIQUE(content_hash, size)
+                                    ) STRICT;
+                                    """);
+        }
+    }
+
+    public AttachmentUploadStore(final Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the pointer of a previous upload of the same content, if that upload hasn't expired yet
+     */
+    public Optional<AttachmentPointer> getUpload(byte[] contentHash, long size) {
+        final var sql = (
+                """
+                SELECT a.pointer
+                FROM %s a
+                WHERE a.content_hash = ? AND a.size = ? AND a.expires_at > ?
+                """
+        ).formatted(TABLE_ATTACHMENT_UPLOAD);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, contentHash);
+                statement.setLong(2, size);
+                statement.setLong(3, System.currentTimeMillis());
+                return Utils.executeQueryForOptional(statement, this::getPointerFromResultSet);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from attachment upload store", e);
+        }
+    }
+
+    public void addUpload(byte[] contentHash, long size, AttachmentPointer pointer, long expiresAt) {
+        final var sql = (
+                """
+                INSERT INTO %s (content_hash, size, pointer, expires_at)
+                VALUES (?, ?, ?, ?)
+                ON CONFLICT (content_hash, size) DO UPDATE SET pointer=excluded.pointer, expires_at=excluded.expires_at
+                """
+        ).formatted(TABLE_ATTACHMENT_UPLOAD);
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            deleteExpiredUploads(connection);
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, contentHash);
+                statement.setLong(2, size);
+                statement.setBytes(3, pointer.encode());
+                statement.setLong(4, expiresAt);
+                statement.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update attachment upload store", e);
+        }
+    }
+
+    public void removeUpload(byte[] contentHash, long size) {
+        final var sql = (
+                """
+                DELETE FROM %s AS a
+                WHERE a.content_hash = ? AND a.size = ?
+                """
+        ).formatted(TABLE_ATTACHMENT_UPLOAD);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, contentHash);
+                statement.setLong(2, size);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update attachment upload store", e);
+        }
+    }
+
+    private void deleteExpiredUploads(final Connection connection) throws SQLException {
+        final var sql = (
+                """
+                DELETE FROM %s AS a
+                WHERE a.expires_at <= ?
+                """
+        ).formatted(TABLE_ATTACHMENT_UPLOAD);
+        try (final var statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, System.currentTimeMillis());
+            final var count = statement.executeUpdate();
+            if (count > 0) {
+                logger.trace("Deleted {} expired attachment uploads", count);
+            }
+        }
+    }
+
+    private AttachmentPointer getPointerFromResultSet(ResultSet resultSet) throws SQLException {
+        try {
+            return AttachmentPointer.ADAPTER.decode(resultSet.getBinaryStream("pointer"));
+        } catch (IOException e) {
+            logger.warn("Failed to parse stored attachment pointer, ignoring", e);
+            return null;
+        }
+    }
+}
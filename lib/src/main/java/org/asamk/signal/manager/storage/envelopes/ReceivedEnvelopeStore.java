@@ -0,0 +1,284 @@
+package org.asamk.signal.manager.storage.envelopes;
+
+import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the envelopes received from the server, to detect envelopes that are delivered more than once.
+ * The most recent envelopes are kept exactly in memory, older ones in two generations of a Bloom filter that is
+ * stored in the account database. The current generation replaces the previous one, once it's full.
+ * With the chosen parameters a new envelope is mistaken for a duplicate with a probability of at most 1 in 300 000.
+ */
+public class ReceivedEnvelopeStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceivedEnvelopeStore.class);
+    private static final String TABLE_RECEIVED_ENVELOPE_FILTER = "received_envelope_filter";
+
+    private static final int RECENT_ENVELOPES_SIZE = 10_000;
+    private static final int GENERATION_CAPACITY = 100_000;
+    // Each envelope only sets bits in a single page, so only that page needs to be written
+    private static final int PAGE_BITS = 4096;
+    private static final int PAGE_COUNT = GENERATION_CAPACITY * 29 / PAGE_BITS + 1;
+    private static final int HASH_COUNT = 20;
+
+    private final Database database;
+    private final Map<String, Boolean> recentEnvelopes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_ENVELOPES_SIZE;
+        }
+    };
+    private Generation current;
+    private Generation previous;
+
+    public static void createSql(Connection connection) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE received_envelope_filter (
+                                      _id INTEGER PRIMARY KEY,
+                                      generation INTEGER NOT NULL,
+                                      page INTEGER NOT NULL,
+                                      count INTEGER NOT NULL,
+                                      bits BLOB NOT NULL,
+                                      UNIQUE(generation, page)
+                                    ) STRICT;
+                                    """);
+        }
+    }
+
+    public ReceivedEnvelopeStore(final Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Envelopes that are only found in the Bloom filter, but not in the recent envelopes, are logged, because they may
+     * be a false positive of the filter.
+     *
+     * @return true if the envelope has already been received before
+     */
+    public synchronized boolean contains(String serverGuid, long serverTimestamp) {
+        final var key = getKey(serverGuid, serverTimestamp);
+        if (recentEnvelopes.get(key) != null) {
+            return true;
+        }
+
+        loadIfRequired();
+        if (isInFilter(hash(key))) {
+            // Either an older duplicate or a false positive of the filter, which drops a new envelope
+            logger.warn("Envelope {} with timestamp {} matches the received envelope filter, skipping it as duplicate",
+                    serverGuid,
+                    serverTimestamp);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remember a received envelope, once it has been stored, the change is only stored in the database with the next
+     * {@link #flush()}.
+     */
+    public synchronized void add(String serverGuid, long serverTimestamp) {
+        final var key = getKey(serverGuid, serverTimestamp);
+        if (recentEnvelopes.put(key, Boolean.TRUE) != null) {
+            return;
+        }
+
+        loadIfRequired();
+        final var hash = hash(key);
+        if (isInFilter(hash)) {
+            return;
+        }
+        if (current.count >= GENERATION_CAPACITY) {
+            logger.debug("Received envelope filter generation {} is full, starting a new one", current.id);
+            previous = current;
+            current = new Generation(previous.id + 1);
+        }
+        current.add(hash);
+    }
+
+    /**
+     * Store the changed pages of the filter in the database.
+     */
+    public synchronized void flush() {
+        if (current == null || (current.dirtyPages.isEmpty() && (previous == null || previous.dirtyPages.isEmpty()))) {
+            return;
+        }
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            if (previous != null) {
+                storeDirtyPages(connection, previous);
+            }
+            storeDirtyPages(connection, current);
+            deleteOlderGenerations(connection, previous == null ? current.id : previous.id);
+            connection.commit();
+        } catch (SQLException e) {
+            logger.warn("Failed to update received envelope filter", e);
+        }
+    }
+
+    private boolean isInFilter(final long[] hash) {
+        return current.contains(hash) || (previous != null && previous.contains(hash));
+    }
+
+    private void loadIfRequired() {
+        if (current != null) {
+            return;
+        }
+        final var sql = (
+                """
+                SELECT f.generation, f.page, f.count, f.bits
+                FROM %s f
+                WHERE f.generation >= (SELECT MAX(generation) - 1 FROM %s)
+                """
+        ).formatted(TABLE_RECEIVED_ENVELOPE_FILTER, TABLE_RECEIVED_ENVELOPE_FILTER);
+        final var generations = new HashMap<Long, Generation>();
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                try (final var result = Utils.executeQueryForStream(statement, this::getPageFromResultSet)) {
+                    result.forEach(p -> generations.computeIfAbsent(p.generation(), Generation::new)
+                            .loadPage(p.page(), p.count(), p.bits()));
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to read received envelope filter, starting with an empty one", e);
+            generations.clear();
+        }
+        final var sorted = generations.values().stream().sorted((a, b) -> Long.compare(b.id, a.id)).toList();
+        current = sorted.isEmpty() ? new Generation(0) : sorted.getFirst();
+        previous = sorted.size() > 1 ? sorted.get(1) : null;
+    }
+
+    private StoredPage getPageFromResultSet(ResultSet resultSet) throws SQLException {
+        return new StoredPage(resultSet.getLong("generation"),
+                resultSet.getInt("page"),
+                resultSet.getInt("count"),
+                resultSet.getBytes("bits"));
+    }
+
+    private void storeDirtyPages(final Connection connection, final Generation generation) throws SQLException {
+        final var sql = (
+                """
+                INSERT INTO %s (generation, page, count, bits)
+                VALUES (?, ?, ?, ?)
+                ON CONFLICT (generation, page) DO UPDATE SET count=excluded.count, bits=excluded.bits
+                """
+        ).formatted(TABLE_RECEIVED_ENVELOPE_FILTER);
+        try (final var statement = connection.prepareStatement(sql)) {
+            for (final var page : generation.dirtyPages.stream().toArray()) {
+                statement.setLong(1, generation.id);
+                statement.setInt(2, page);
+                statement.setInt(3, generation.pageCounts[page]);
+                statement.setBytes(4, generation.getPageBytes(page));
+                statement.executeUpdate();
+            }
+        }
+        generation.dirtyPages.clear();
+    }
+
+    private void deleteOlderGenerations(final Connection connection, final long generation) throws SQLException {
+        final var sql = (
+                """
+                DELETE FROM %s AS f
+                WHERE f.generation < ?
+                """
+        ).formatted(TABLE_RECEIVED_ENVELOPE_FILTER);
+        try (final var statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, generation);
+            statement.executeUpdate();
+        }
+    }
+
+    private static String getKey(final String serverGuid, final long serverTimestamp) {
+        return serverGuid + ":" + serverTimestamp;
+    }
+
+    private static long[] hash(final String key) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        final var buffer = ByteBuffer.wrap(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        return new long[]{buffer.getLong(), buffer.getLong(), buffer.getLong() | 1};
+    }
+
+    private record StoredPage(long generation, int page, int count, byte[] bits) {}
+
+    private static final class Generation {
+
+        private final long id;
+        private final BitSet[] pages = new BitSet[PAGE_COUNT];
+        private final int[] pageCounts = new int[PAGE_COUNT];
+        private final BitSet dirtyPages = new BitSet(PAGE_COUNT);
+        private int count = 0;
+
+        private Generation(final long id) {
+            this.id = id;
+        }
+
+        private boolean contains(final long[] hash) {
+            final var page = pages[getPage(hash)];
+            if (page == null) {
+                return false;
+            }
+            for (var i = 0; i < HASH_COUNT; i++) {
+                if (!page.get(getBit(hash, i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(final long[] hash) {
+            final var pageIndex = getPage(hash);
+            var page = pages[pageIndex];
+            if (page == null) {
+                page = pages[pageIndex] = new BitSet(PAGE_BITS);
+            }
+            for (var i = 0; i < HASH_COUNT; i++) {
+                page.set(getBit(hash, i));
+            }
+            pageCounts[pageIndex]++;
+            count++;
+            dirtyPages.set(pageIndex);
+        }
+
+        private void loadPage(final int pageIndex, final int pageCount, final byte[] bits) {
+            if (pageIndex < 0 || pageIndex >= PAGE_COUNT) {
+                return;
+            }
+            pages[pageIndex] = BitSet.valueOf(bits);
+            pageCounts[pageIndex] = pageCount;
+            count += pageCount;
+        }
+
+        private byte[] getPageBytes(final int pageIndex) {
+            final var page = pages[pageIndex];
+            return page == null ? new byte[0] : page.toByteArray();
+        }
+
+        private static int getPage(final long[] hash) {
+            return (int) Math.floorMod(hash[0], (long) PAGE_COUNT);
+        }
+
+        private static int getBit(final long[] hash, final int i) {
+            return (int) Math.floorMod(hash[1] + i * hash[2], (long) PAGE_BITS);
+        }
+    }
+}
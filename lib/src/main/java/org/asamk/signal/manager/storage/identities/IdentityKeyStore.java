@@ -28,6 +28,7 @@ public class IdentityKeyStore {
     private final Database database;
     private final TrustNewIdentity trustNewIdentity;
     private final PublishSubject<ServiceId> identityChanges = PublishSubject.create();
+    private final PublishSubject<ServiceId> trustLevelChanges = PublishSubject.create();
 
     private boolean isRetryingDecryption = false;
 
@@ -55,6 +56,13 @@ public class IdentityKeyStore {
         return identityChanges;
     }
 
+    /**
+     * Emits when the trust level of an existing identity changes or the identity is deleted.
+     */
+    public Observable<ServiceId> getTrustLevelChanges() {
+        return trustLevelChanges;
+    }
+
     public boolean saveIdentity(final ServiceId serviceId, final IdentityKey identityKey) {
         return saveIdentity(serviceId.toString(), identityKey);
     }
@@ -105,6 +113,7 @@ public class IdentityKeyStore {
                     trustLevel,
                     identityInfo.getDateAddedTimestamp());
             storeIdentity(connection, newIdentityInfo);
+            trustLevelChanges.onNext(serviceId);
             return true;
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
@@ -183,6 +192,7 @@ public class IdentityKeyStore {
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
         }
+        trustLevelChanges.onNext(serviceId);
     }
 
     void addLegacyIdentities(final Collection<IdentityInfo> identities) {
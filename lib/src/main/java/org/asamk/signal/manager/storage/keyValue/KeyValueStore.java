@@ -36,7 +36,7 @@ public class KeyValueStore {
     }
 
     public <T> T getEntry(KeyValueEntry<T> key) {
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             return getEntry(connection, key);
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from pre_key store", e);
@@ -44,8 +44,11 @@ public class KeyValueStore {
     }
 
     public <T> void storeEntry(KeyValueEntry<T> key, T value) {
-        try (final var connection = database.getConnection()) {
-            storeEntry(connection, key, value);
+        try {
+            database.executeWrite(connection -> {
+                storeEntry(connection, key, value);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update key_value store", e);
         }
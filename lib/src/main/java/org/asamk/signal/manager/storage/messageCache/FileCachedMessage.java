@@ -0,0 +1,69 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+final class FileCachedMessage implements CachedMessage {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileCachedMessage.class);
+
+    private final File file;
+
+    private SignalServiceEnvelope envelope;
+
+    FileCachedMessage(final File file) {
+        this.file = file;
+    }
+
+    FileCachedMessage(final File file, SignalServiceEnvelope envelope) {
+        this.file = file;
+        this.envelope = envelope;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public SignalServiceEnvelope loadEnvelope() {
+        if (envelope == null) {
+            try {
+                envelope = MessageCacheUtils.loadEnvelope(file);
+            } catch (Exception e) {
+                logger.error("Failed to load cached message envelope “{}”: {}", file, e.getMessage(), e);
+            }
+        }
+        return envelope;
+    }
+
+    @Override
+    public void delete() {
+        try {
+            Files.delete(file.toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete cached message file “{}”, ignoring: {}", file, e.getMessage());
+        }
+        // Delete parent directory, if empty
+        try {
+            Files.delete(file.toPath().getParent());
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof FileCachedMessage that && Objects.equals(file, that.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(file);
+    }
+}
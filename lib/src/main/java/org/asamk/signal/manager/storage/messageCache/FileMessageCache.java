@@ -0,0 +1,278 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.util.IOUtils;
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class FileMessageCache implements MessageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMessageCache.class);
+
+    private final File messageCachePath;
+
+    public FileMessageCache(final File messageCachePath) {
+        this.messageCachePath = messageCachePath;
+    }
+
+    @Override
+    public Stream<CachedMessage> getCachedMessages() {
+        if (!messageCachePath.exists()) {
+            return Stream.empty();
+        }
+
+        final var iterator = new CachedMessageIterator(messageCachePath.toPath(), System.currentTimeMillis());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    @Override
+    public CachedMessage cacheMessage(SignalServiceEnvelope envelope, RecipientId recipientId) {
+        final var now = System.currentTimeMillis();
+
+        File cacheFile;
+        try {
+            cacheFile = getMessageCacheFile(recipientId, now, envelope.getTimestamp());
+        } catch (IOException e) {
+            logger.warn("Failed to create recipient folder in disk cache: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+
+        final var cachedMessage = new FileCachedMessage(cacheFile, envelope);
+        try {
+            MessageCacheUtils.storeEnvelope(envelope, cacheFile);
+            return cachedMessage;
+        } catch (IOException e) {
+            logger.warn("Failed to store encrypted message in disk cache, ignoring: {}", e.getMessage());
+            return cachedMessage;
+        }
+    }
+
+    /**
+     * Store the envelope, without ignoring a failure.
+     */
+    void importMessage(SignalServiceEnvelope envelope, RecipientId recipientId) throws IOException {
+        final var cacheFile = getMessageCacheFile(recipientId, System.currentTimeMillis(), envelope.getTimestamp());
+        MessageCacheUtils.storeEnvelope(envelope, cacheFile);
+    }
+
+    @Override
+    public CachedMessage replaceSender(CachedMessage message, RecipientId sender) throws IOException {
+        final var cachedMessage = (FileCachedMessage) message;
+        final var cacheFile = getMessageCacheFile(sender, cachedMessage.getFile().getName());
+        if (cacheFile.equals(cachedMessage.getFile())) {
+            return cachedMessage;
+        }
+        logger.debug("Moving cached message {} to {}", cachedMessage.getFile().toPath(), cacheFile.toPath());
+        Files.move(cachedMessage.getFile().toPath(), cacheFile.toPath());
+        return new FileCachedMessage(cacheFile);
+    }
+
+    @Override
+    public void deleteMessages(final RecipientId recipientId) {
+        final var recipientMessageCachePath = getMessageCachePath(recipientId);
+        if (!recipientMessageCachePath.exists()) {
+            return;
+        }
+
+        for (var file : Objects.requireNonNull(recipientMessageCachePath.listFiles())) {
+            if (!file.isFile()) {
+                continue;
+            }
+
+            try {
+                Files.delete(file.toPath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete cache file “{}”, ignoring: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private File getMessageCachePath(RecipientId recipientId) {
+        if (recipientId == null) {
+            return messageCachePath;
+        }
+
+        var sender = String.valueOf(recipientId.id());
+        return new File(messageCachePath, sender.replace("/", "_"));
+    }
+
+    private File getMessageCacheFile(RecipientId recipientId, String filename) throws IOException {
+        var cachePath = getMessageCachePath(recipientId);
+        IOUtils.createPrivateDirectories(cachePath);
+        return new File(cachePath, filename);
+    }
+
+    private File getMessageCacheFile(RecipientId recipientId, long now, long timestamp) throws IOException {
+        var cachePath = getMessageCachePath(recipientId);
+        IOUtils.createPrivateDirectories(cachePath);
+        return new File(cachePath, now + "_" + timestamp);
+    }
+
+    @Override
+    public void mergeRecipients(final RecipientId recipientId, final RecipientId toBeMergedRecipientId) {
+        final var toBeMergedMessageCachePath = getMessageCachePath(toBeMergedRecipientId);
+        if (!toBeMergedMessageCachePath.exists()) {
+            return;
+        }
+
+        for (var file : Objects.requireNonNull(toBeMergedMessageCachePath.listFiles())) {
+            if (!file.isFile()) {
+                continue;
+            }
+
+            try {
+                final var cacheFile = getMessageCacheFile(recipientId, file.getName());
+                Files.move(file.toPath(), cacheFile.toPath());
+            } catch (IOException e) {
+                logger.warn("Failed to move cache file “{}”, ignoring: {}", file, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the time the message was cached, as encoded in the cache file name, or 0 for unknown file names
+     */
+    private static long getCachedAt(final Path file) {
+        final var filename = file.getFileName().toString();
+        final var separator = filename.indexOf('_');
+        if (separator <= 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(filename, 0, separator, 10);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Walks the cache directories with directory streams, so only one directory listing is open at a time and the
+     * cached messages are never materialized all at once.
+     * Messages cached after the iterator was created are skipped, they are handled by the thread that cached them.
+     */
+    private static final class CachedMessageIterator implements Iterator<CachedMessage>, AutoCloseable {
+
+        private final long createdAt;
+        private DirectoryStream<Path> rootStream;
+        private Iterator<Path> rootIterator;
+        private DirectoryStream<Path> dirStream;
+        private Iterator<Path> dirIterator;
+        private CachedMessage next;
+
+        private CachedMessageIterator(final Path messageCachePath, final long createdAt) {
+            this.createdAt = createdAt;
+            try {
+                rootStream = Files.newDirectoryStream(messageCachePath);
+                rootIterator = rootStream.iterator();
+            } catch (IOException e) {
+                logger.warn("Failed to read message cache dir “{}”, ignoring: {}", messageCachePath, e.getMessage());
+                rootIterator = Collections.emptyIterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public CachedMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final var cachedMessage = next;
+            next = null;
+            return cachedMessage;
+        }
+
+        private CachedMessage advance() {
+            try {
+                while (true) {
+                    if (dirIterator != null) {
+                        while (dirIterator.hasNext()) {
+                            final var file = dirIterator.next();
+                            if (isCachedMessage(file)) {
+                                return new FileCachedMessage(file.toFile());
+                            }
+                        }
+                        closeDirStream();
+                    }
+
+                    if (!rootIterator.hasNext()) {
+                        return null;
+                    }
+                    final var entry = rootIterator.next();
+                    if (isCachedMessage(entry)) {
+                        return new FileCachedMessage(entry.toFile());
+                    }
+                    if (Files.isDirectory(entry)) {
+                        openDirStream(entry);
+                    }
+                }
+            } catch (DirectoryIteratorException e) {
+                logger.warn("Failed to read message cache dir, ignoring: {}", e.getMessage());
+                close();
+                return null;
+            }
+        }
+
+        private void openDirStream(final Path dir) {
+            try {
+                dirStream = Files.newDirectoryStream(dir);
+            } catch (IOException e) {
+                logger.warn("Failed to read cache dir “{}”, ignoring: {}", dir, e.getMessage());
+                return;
+            }
+            dirIterator = dirStream.iterator();
+        }
+
+        private boolean isCachedMessage(final Path file) {
+            return Files.isRegularFile(file) && getCachedAt(file) < createdAt;
+        }
+
+        private void closeDirStream() {
+            if (dirStream != null) {
+                try {
+                    dirStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            dirStream = null;
+            dirIterator = null;
+        }
+
+        @Override
+        public void close() {
+            closeDirStream();
+            if (rootStream != null) {
+                try {
+                    rootStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            rootStream = null;
+            rootIterator = Collections.emptyIterator();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+final class SegmentCachedMessage implements CachedMessage {
+
+    private final SegmentMessageCache messageCache;
+    private final long entryId;
+
+    private SignalServiceEnvelope envelope;
+
+    SegmentCachedMessage(final SegmentMessageCache messageCache, final long entryId) {
+        this.messageCache = messageCache;
+        this.entryId = entryId;
+    }
+
+    SegmentCachedMessage(
+            final SegmentMessageCache messageCache, final long entryId, final SignalServiceEnvelope envelope
+    ) {
+        this.messageCache = messageCache;
+        this.entryId = entryId;
+        this.envelope = envelope;
+    }
+
+    long getEntryId() {
+        return entryId;
+    }
+
+    @Override
+    public SignalServiceEnvelope loadEnvelope() {
+        if (envelope == null) {
+            envelope = messageCache.loadEnvelope(entryId);
+        }
+        return envelope;
+    }
+
+    @Override
+    public void delete() {
+        messageCache.delete(entryId);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof SegmentCachedMessage that && messageCache == that.messageCache && entryId == that.entryId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(entryId);
+    }
+}
@@ -0,0 +1,770 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.util.IOUtils;
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Message cache that appends envelopes to rolling segment files, instead of creating a file per envelope.
+ * <p>
+ * A segment is a sequence of records {@code [int length][int crc32][payload]}, where the payload either adds an
+ * entry (id, sender, envelope), marks an entry as handled (tombstone) or changes the sender of an entry.
+ * The live entries are kept in an in-memory index, that is rebuilt by replaying all segments on startup.
+ * <p>
+ * For each segment the index counts the bytes of records that are still needed: live entries, tombstones of entries
+ * in another segment that still exists and sender changes of live entries in another segment.
+ * Sealed segments, where most of the bytes are no longer needed, are compacted in the background by copying the
+ * needed records to the active segment and deleting the file. So a tombstone is never removed while the entry it
+ * refers to still exists. Segments that are mostly live are kept as they are, and the copies made by a compaction
+ * don't request another compaction.
+ */
+public class SegmentMessageCache implements MessageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentMessageCache.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    // A sealed segment is only compacted if at least this part of it is no longer needed
+    private static final double MIN_DEAD_RATIO = 0.5;
+    // Records copied by a compaction while holding the lock, before letting other threads append again
+    private static final long COMPACTION_CHUNK_SIZE = 256 * 1024;
+
+    private static final byte RECORD_TYPE_ENTRY = 1;
+    private static final byte RECORD_TYPE_DELETE = 2;
+    private static final byte RECORD_TYPE_SENDER = 3;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int ENTRY_HEADER_SIZE = 1 + 2 * Long.BYTES;
+    private static final int DELETE_RECORD_SIZE = RECORD_HEADER_SIZE + 1 + Long.BYTES;
+    private static final int SENDER_RECORD_SIZE = RECORD_HEADER_SIZE + 1 + 2 * Long.BYTES;
+    private static final long NO_RECIPIENT = -1;
+    private static final long NO_SEGMENT = -1;
+
+    private final File segmentsPath;
+    private final Map<Long, Entry> entries = new TreeMap<>();
+    // Deleted entries whose entry record still exists in another segment than their tombstone
+    private final Map<Long, Tombstone> tombstones = new HashMap<>();
+    private final Map<Long, Long> neededBytes = new HashMap<>();
+    private final Thread compactionThread;
+
+    private long nextEntryId = 0;
+    private long activeSegmentId = 0;
+    private FileChannel activeChannel;
+    private long activeSize;
+    private boolean compactionRequested;
+    private boolean compacting;
+    private boolean closed;
+
+    public SegmentMessageCache(final File segmentsPath, final File legacyMessageCachePath) throws IOException {
+        this.segmentsPath = segmentsPath;
+
+        IOUtils.createPrivateDirectories(segmentsPath);
+        final var segmentIds = loadSegments();
+        if (!segmentIds.isEmpty()) {
+            activeSegmentId = segmentIds.getLast();
+        }
+        openActiveSegment();
+        importLegacyMessages(legacyMessageCachePath);
+        if (segmentIds.size() > 1) {
+            compactionRequested = true;
+        }
+
+        this.compactionThread = Thread.ofPlatform()
+                .name("msg-cache-compaction")
+                .daemon()
+                .start(this::runCompaction);
+    }
+
+    @Override
+    public Stream<CachedMessage> getCachedMessages() {
+        final List<Long> entryIds;
+        synchronized (this) {
+            entryIds = List.copyOf(entries.keySet());
+        }
+        // Envelopes are only loaded when they are handled
+        return entryIds.stream().<CachedMessage>map(entryId -> new SegmentCachedMessage(this, entryId));
+    }
+
+    @Override
+    public CachedMessage cacheMessage(SignalServiceEnvelope envelope, RecipientId recipientId) {
+        final byte[] envelopeBytes;
+        try {
+            envelopeBytes = serializeEnvelope(envelope);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        final var sender = recipientId == null ? NO_RECIPIENT : recipientId.id();
+        synchronized (this) {
+            final var entryId = nextEntryId++;
+            try {
+                appendEntry(entryId, sender, envelopeBytes);
+            } catch (IOException e) {
+                logger.warn("Failed to store encrypted message in disk cache, ignoring: {}", e.getMessage());
+            }
+            return new SegmentCachedMessage(this, entryId, envelope);
+        }
+    }
+
+    @Override
+    public CachedMessage replaceSender(CachedMessage cachedMessage, RecipientId sender) throws IOException {
+        final var entryId = ((SegmentCachedMessage) cachedMessage).getEntryId();
+        final var senderId = sender.id();
+        synchronized (this) {
+            final var entry = entries.get(entryId);
+            if (entry == null || entry.recipientId() == senderId) {
+                return cachedMessage;
+            }
+            logger.debug("Moving cached message {} to recipient {}", entryId, senderId);
+            appendSender(entryId, senderId);
+        }
+        return cachedMessage;
+    }
+
+    @Override
+    public void deleteMessages(final RecipientId recipientId) {
+        final var senderId = recipientId.id();
+        synchronized (this) {
+            for (final var entryId : getEntryIds(senderId)) {
+                delete(entryId);
+            }
+        }
+    }
+
+    @Override
+    public void mergeRecipients(final RecipientId recipientId, final RecipientId toBeMergedRecipientId) {
+        final var senderId = recipientId.id();
+        final var toBeMergedSenderId = toBeMergedRecipientId.id();
+        synchronized (this) {
+            for (final var entryId : getEntryIds(toBeMergedSenderId)) {
+                try {
+                    appendSender(entryId, senderId);
+                } catch (IOException e) {
+                    logger.warn("Failed to move cached message {}, ignoring: {}", entryId, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            this.notifyAll();
+        }
+        try {
+            compactionThread.join();
+        } catch (InterruptedException ignored) {
+        }
+        synchronized (this) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close message cache segment: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Move the messages of an existing segment log to the file cache and delete the log, so switching back to the
+     * file cache doesn't lose messages, that haven't been handled yet.
+     * Messages that can't be moved stay in the log and are moved again on the next start.
+     */
+    public static void exportMessages(
+            final File segmentsPath, final FileMessageCache target, final LongFunction<RecipientId> recipientIdCreator
+    ) throws IOException {
+        if (!segmentsPath.exists()) {
+            return;
+        }
+        final var segmentCache = new SegmentMessageCache(segmentsPath, null);
+        final boolean complete;
+        try {
+            complete = segmentCache.exportMessages(target, recipientIdCreator);
+        } finally {
+            segmentCache.close();
+        }
+        if (!complete) {
+            return;
+        }
+        for (final var segmentId : segmentCache.listSegmentIds()) {
+            Files.delete(segmentCache.getSegmentFile(segmentId).toPath());
+        }
+        deleteIfEmpty(segmentsPath);
+    }
+
+    private boolean exportMessages(final FileMessageCache target, final LongFunction<RecipientId> recipientIdCreator) {
+        final List<Long> entryIds;
+        synchronized (this) {
+            entryIds = List.copyOf(entries.keySet());
+        }
+        if (!entryIds.isEmpty()) {
+            logger.info("Moving {} cached messages from the message log to the file cache", entryIds.size());
+        }
+        var complete = true;
+        for (final var entryId : entryIds) {
+            final long recipientId;
+            synchronized (this) {
+                recipientId = entries.get(entryId).recipientId();
+            }
+            final var envelope = loadEnvelope(entryId);
+            if (envelope == null) {
+                logger.warn("Dropping cached message {} that can't be read", entryId);
+                delete(entryId);
+                continue;
+            }
+            try {
+                target.importMessage(envelope,
+                        recipientId == NO_RECIPIENT ? null : recipientIdCreator.apply(recipientId));
+                delete(entryId);
+            } catch (IOException e) {
+                logger.warn("Failed to move cached message {} to the file cache: {}", entryId, e.getMessage());
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    SignalServiceEnvelope loadEnvelope(final long entryId) {
+        synchronized (this) {
+            final var entry = entries.get(entryId);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                return MessageCacheUtils.loadEnvelope(new ByteArrayInputStream(readEnvelopeBytes(entry)));
+            } catch (Exception e) {
+                logger.error("Failed to load cached message envelope {}: {}", entryId, e.getMessage(), e);
+                return null;
+            }
+        }
+    }
+
+    void delete(final long entryId) {
+        synchronized (this) {
+            final var entry = entries.get(entryId);
+            if (entry == null) {
+                return;
+            }
+            try {
+                appendTombstone(entryId, entry.segmentId());
+            } catch (IOException e) {
+                logger.warn("Failed to delete cached message {}, ignoring: {}", entryId, e.getMessage());
+            }
+        }
+    }
+
+    private List<Long> getEntryIds(final long recipientId) {
+        return entries.entrySet()
+                .stream()
+                .filter(e -> e.getValue().recipientId() == recipientId)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private void appendEntry(final long entryId, final long recipientId, final byte[] envelopeBytes) throws IOException {
+        final var payload = ByteBuffer.allocate(ENTRY_HEADER_SIZE + envelopeBytes.length)
+                .put(RECORD_TYPE_ENTRY)
+                .putLong(entryId)
+                .putLong(recipientId)
+                .put(envelopeBytes)
+                .array();
+        final var segmentId = activeSegmentId;
+        final var position = appendRecord(payload);
+        putEntry(entryId,
+                new Entry(segmentId, position + ENTRY_HEADER_SIZE, envelopeBytes.length, recipientId, NO_SEGMENT));
+        rollSegmentIfRequired();
+    }
+
+    private void appendSender(final long entryId, final long recipientId) throws IOException {
+        appendRecord(ByteBuffer.allocate(1 + 2 * Long.BYTES)
+                .put(RECORD_TYPE_SENDER)
+                .putLong(entryId)
+                .putLong(recipientId)
+                .array());
+        updateSender(activeSegmentId, entryId, recipientId);
+        rollSegmentIfRequired();
+    }
+
+    /**
+     * @param entrySegmentId the segment that contains the entry record of the deleted entry
+     */
+    private void appendTombstone(final long entryId, final long entrySegmentId) throws IOException {
+        appendRecord(ByteBuffer.allocate(1 + Long.BYTES).put(RECORD_TYPE_DELETE).putLong(entryId).array());
+        removeEntry(activeSegmentId, entryId, entrySegmentId);
+        rollSegmentIfRequired();
+    }
+
+    private void putEntry(final long entryId, final Entry entry) {
+        final var previous = entries.put(entryId, entry);
+        if (previous != null) {
+            releaseEntry(previous);
+        }
+        addNeededBytes(entry.segmentId(), entry.recordSize());
+    }
+
+    private void updateSender(final long senderSegmentId, final long entryId, final long recipientId) {
+        final var entry = entries.get(entryId);
+        if (entry == null) {
+            return;
+        }
+        if (entry.senderSegmentId() != NO_SEGMENT) {
+            addNeededBytes(entry.senderSegmentId(), -SENDER_RECORD_SIZE);
+        }
+        // The sender of an entry in the same segment is applied again on replay, as long as that segment exists
+        final var neededSenderSegmentId = senderSegmentId == entry.segmentId() ? NO_SEGMENT : senderSegmentId;
+        if (neededSenderSegmentId != NO_SEGMENT) {
+            addNeededBytes(neededSenderSegmentId, SENDER_RECORD_SIZE);
+        }
+        entries.put(entryId,
+                new Entry(entry.segmentId(), entry.position(), entry.length(), recipientId, neededSenderSegmentId));
+    }
+
+    /**
+     * @param entrySegmentId the segment of the entry record, the entry might already have been removed by an earlier
+     *                       tombstone for the same entry
+     */
+    private void removeEntry(final long tombstoneSegmentId, final long entryId, final long entrySegmentId) {
+        final var entry = entries.remove(entryId);
+        if (entry == null) {
+            return;
+        }
+        releaseEntry(entry);
+        if (entrySegmentId != tombstoneSegmentId) {
+            tombstones.put(entryId, new Tombstone(entrySegmentId, tombstoneSegmentId));
+            addNeededBytes(tombstoneSegmentId, DELETE_RECORD_SIZE);
+        }
+    }
+
+    private void releaseEntry(final Entry entry) {
+        addNeededBytes(entry.segmentId(), -entry.recordSize());
+        if (entry.senderSegmentId() != NO_SEGMENT) {
+            addNeededBytes(entry.senderSegmentId(), -SENDER_RECORD_SIZE);
+        }
+    }
+
+    private void addNeededBytes(final long segmentId, final long bytes) {
+        neededBytes.merge(segmentId, bytes, Long::sum);
+    }
+
+    /**
+     * @return the position of the payload in the active segment
+     */
+    private long appendRecord(final byte[] payload) throws IOException {
+        final var buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(checksum(payload))
+                .put(payload)
+                .flip();
+        final var position = activeSize;
+        try {
+            while (buffer.hasRemaining()) {
+                activeChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            // Remove the partially written record, so later records aren't hidden behind it
+            activeChannel.truncate(position);
+            activeChannel.position(position);
+            throw e;
+        }
+        activeSize += buffer.limit();
+        return position + RECORD_HEADER_SIZE;
+    }
+
+    private void rollSegmentIfRequired() throws IOException {
+        if (activeSize < MAX_SEGMENT_SIZE) {
+            return;
+        }
+        activeChannel.force(false);
+        activeChannel.close();
+        activeSegmentId++;
+        openActiveSegment();
+        synchronized (this) {
+            if (!compacting) {
+                compactionRequested = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private void openActiveSegment() throws IOException {
+        activeChannel = FileChannel.open(getSegmentFile(activeSegmentId).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+        activeChannel.position(activeSize);
+        if (activeSize >= MAX_SEGMENT_SIZE) {
+            rollSegmentIfRequired();
+        }
+    }
+
+    private byte[] readEnvelopeBytes(final Entry entry) throws IOException {
+        final var buffer = ByteBuffer.allocate(entry.length());
+        if (entry.segmentId() == activeSegmentId) {
+            readFully(activeChannel, buffer, entry.position());
+        } else {
+            try (final var channel = FileChannel.open(getSegmentFile(entry.segmentId()).toPath(),
+                    StandardOpenOption.READ)) {
+                readFully(channel, buffer, entry.position());
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final var read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of message cache segment");
+            }
+        }
+    }
+
+    private List<Long> loadSegments() throws IOException {
+        final var segmentIds = listSegmentIds();
+        for (final var segmentId : segmentIds) {
+            final var file = getSegmentFile(segmentId);
+            final var validSize = replaySegment(segmentId, file);
+            if (validSize < file.length()) {
+                // Most likely a record that was only partially written before a crash
+                logger.warn("Message cache segment “{}” has an invalid tail, truncating it to {} bytes",
+                        file,
+                        validSize);
+                try (final var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(validSize);
+                }
+            }
+        }
+        logger.debug("Loaded {} cached messages from {} segments", entries.size(), segmentIds.size());
+        return segmentIds;
+    }
+
+    private long replaySegment(final long segmentId, final File file) throws IOException {
+        return readRecords(file, (position, payload) -> applyRecord(segmentId, position, payload));
+    }
+
+    /**
+     * @return the size of the valid records at the start of the file
+     */
+    private static long readRecords(final File file, final RecordConsumer consumer) throws IOException {
+        final var fileSize = file.length();
+        long position = 0;
+        try (final var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length;
+                final int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    return position;
+                }
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > fileSize) {
+                    return position;
+                }
+                final var payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    return position;
+                }
+                consumer.accept(position + RECORD_HEADER_SIZE, payload);
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+    }
+
+    private void applyRecord(final long segmentId, final long position, final byte[] payload) {
+        final var buffer = ByteBuffer.wrap(payload);
+        final var type = buffer.get();
+        final var entryId = buffer.getLong();
+        switch (type) {
+            case RECORD_TYPE_ENTRY -> {
+                final var recipientId = buffer.getLong();
+                putEntry(entryId,
+                        new Entry(segmentId, position + ENTRY_HEADER_SIZE, buffer.remaining(), recipientId, NO_SEGMENT));
+                nextEntryId = Math.max(nextEntryId, entryId + 1);
+            }
+            case RECORD_TYPE_DELETE -> {
+                final var entry = entries.get(entryId);
+                if (entry != null) {
+                    removeEntry(segmentId, entryId, entry.segmentId());
+                }
+            }
+            case RECORD_TYPE_SENDER -> updateSender(segmentId, entryId, buffer.getLong());
+            default -> logger.warn("Unknown message cache record type {}, ignoring", type);
+        }
+    }
+
+    private void importLegacyMessages(final File legacyMessageCachePath) {
+        if (legacyMessageCachePath == null || !legacyMessageCachePath.exists()) {
+            return;
+        }
+        logger.debug("Importing cached messages from “{}”", legacyMessageCachePath);
+        for (final var file : Objects.requireNonNull(legacyMessageCachePath.listFiles())) {
+            if (file.isFile()) {
+                importLegacyMessage(file, NO_RECIPIENT);
+                continue;
+            }
+            long recipientId;
+            try {
+                recipientId = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                recipientId = NO_RECIPIENT;
+            }
+            for (final var messageFile : Objects.requireNonNull(file.listFiles())) {
+                if (messageFile.isFile()) {
+                    importLegacyMessage(messageFile, recipientId);
+                }
+            }
+            deleteIfEmpty(file);
+        }
+        deleteIfEmpty(legacyMessageCachePath);
+    }
+
+    private void importLegacyMessage(final File file, final long recipientId) {
+        synchronized (this) {
+            try {
+                appendEntry(nextEntryId++, recipientId, Files.readAllBytes(file.toPath()));
+                activeChannel.force(false);
+                Files.delete(file.toPath());
+            } catch (IOException e) {
+                logger.warn("Failed to import cached message file “{}”, ignoring: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteIfEmpty(final File dir) {
+        try {
+            Files.delete(dir.toPath());
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void runCompaction() {
+        while (true) {
+            synchronized (this) {
+                while (!closed && !compactionRequested) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                compactionRequested = false;
+            }
+            compactSealedSegments();
+        }
+    }
+
+    void compactSealedSegments() {
+        // Segments created by this compaction aren't part of the list
+        for (final var segmentId : listSegmentIds()) {
+            synchronized (this) {
+                if (closed || segmentId >= activeSegmentId) {
+                    return;
+                }
+                if (!isCompactionRequired(segmentId)) {
+                    continue;
+                }
+            }
+            try {
+                if (!compactSegment(segmentId)) {
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to compact message cache segment {}: {}", segmentId, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private boolean isCompactionRequired(final long segmentId) {
+        final var size = getSegmentFile(segmentId).length();
+        final var needed = neededBytes.getOrDefault(segmentId, 0L);
+        return size == 0 || (double) (size - needed) / size >= MIN_DEAD_RATIO;
+    }
+
+    /**
+     * Sealed segments aren't modified anymore, so the records are read without holding the lock.
+     * The needed records are copied in chunks and the lock is released in between, so caching new messages isn't
+     * blocked for the whole compaction. Whether a record is still needed is only decided while copying its chunk.
+     *
+     * @return false if the cache was closed before the segment was compacted
+     */
+    private boolean compactSegment(final long segmentId) throws IOException {
+        final var file = getSegmentFile(segmentId);
+        final var records = new ArrayList<byte[]>();
+        readRecords(file, (position, payload) -> records.add(payload));
+
+        var index = 0;
+        long movedBytes = 0;
+        while (index < records.size()) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                compacting = true;
+                try {
+                    final var chunkEnd = movedBytes + COMPACTION_CHUNK_SIZE;
+                    while (index < records.size() && movedBytes < chunkEnd) {
+                        final var payload = records.get(index++);
+                        if (copyRecordIfNeeded(segmentId, payload)) {
+                            movedBytes += RECORD_HEADER_SIZE + payload.length;
+                        }
+                    }
+                } finally {
+                    compacting = false;
+                }
+            }
+        }
+
+        synchronized (this) {
+            activeChannel.force(false);
+            Files.delete(file.toPath());
+            neededBytes.remove(segmentId);
+            // Tombstones of entries from this segment are no longer needed
+            final var iterator = tombstones.values().iterator();
+            while (iterator.hasNext()) {
+                final var tombstone = iterator.next();
+                if (tombstone.entrySegmentId() == segmentId) {
+                    addNeededBytes(tombstone.tombstoneSegmentId(), -DELETE_RECORD_SIZE);
+                    iterator.remove();
+                }
+            }
+        }
+        logger.debug("Compacted message cache segment {}, moved {} bytes", segmentId, movedBytes);
+        return true;
+    }
+
+    /**
+     * @return true if the record was still needed and has been copied to the active segment
+     */
+    private boolean copyRecordIfNeeded(final long segmentId, final byte[] payload) throws IOException {
+        final var buffer = ByteBuffer.wrap(payload);
+        final var type = buffer.get();
+        final var entryId = buffer.getLong();
+        switch (type) {
+            case RECORD_TYPE_ENTRY -> {
+                final var entry = entries.get(entryId);
+                if (entry == null || entry.segmentId() != segmentId) {
+                    return false;
+                }
+                final var envelopeBytes = new byte[payload.length - ENTRY_HEADER_SIZE];
+                buffer.position(ENTRY_HEADER_SIZE).get(envelopeBytes);
+                appendEntry(entryId, entry.recipientId(), envelopeBytes);
+                return true;
+            }
+            case RECORD_TYPE_DELETE -> {
+                final var tombstone = tombstones.get(entryId);
+                if (tombstone == null || tombstone.tombstoneSegmentId() != segmentId) {
+                    return false;
+                }
+                appendRecord(ByteBuffer.allocate(1 + Long.BYTES).put(RECORD_TYPE_DELETE).putLong(entryId).array());
+                addNeededBytes(segmentId, -DELETE_RECORD_SIZE);
+                tombstones.put(entryId, new Tombstone(tombstone.entrySegmentId(), activeSegmentId));
+                addNeededBytes(activeSegmentId, DELETE_RECORD_SIZE);
+                rollSegmentIfRequired();
+                return true;
+            }
+            case RECORD_TYPE_SENDER -> {
+                final var entry = entries.get(entryId);
+                if (entry == null || entry.senderSegmentId() != segmentId) {
+                    return false;
+                }
+                appendSender(entryId, entry.recipientId());
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private List<Long> listSegmentIds() {
+        final var files = segmentsPath.listFiles();
+        if (files == null) {
+            return List.of();
+        }
+        final var segmentIds = new ArrayList<Long>();
+        for (final var file : files) {
+            final var name = file.getName();
+            if (!file.isFile() || !name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                segmentIds.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        segmentIds.sort(Long::compare);
+        return segmentIds;
+    }
+
+    private File getSegmentFile(final long segmentId) {
+        return new File(segmentsPath, SEGMENT_PREFIX + segmentId + SEGMENT_SUFFIX);
+    }
+
+    private static byte[] serializeEnvelope(final SignalServiceEnvelope envelope) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try (final var out = new DataOutputStream(bytes)) {
+            MessageCacheUtils.storeEnvelope(envelope, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(final byte[] payload) {
+        final var crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @param senderSegmentId segment of the last sender change, if it's needed to restore the sender on replay
+     */
+    private record Entry(long segmentId, long position, int length, long recipientId, long senderSegmentId) {
+
+        long recordSize() {
+            return RECORD_HEADER_SIZE + ENTRY_HEADER_SIZE + length;
+        }
+    }
+
+    private record Tombstone(long entrySegmentId, long tombstoneSegmentId) {}
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+
+        void accept(long position, byte[] payload) throws IOException;
+    }
+}
@@ -0,0 +1,76 @@
+package org.asamk.signal.manager.storage.recipients;
+
+import org.asamk.signal.manager.api.CacheStats;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the recipients found by their ACI or PNI.
+ * Lookups don't take a lock, so resolving known recipients isn't blocked by a running merge.
+ * A reverse index from the recipient id to its cached service ids allows invalidating a recipient without scanning all
+ * entries. The index uses the database id the recipient had when it was cached, so invalidate a recipient before it
+ * is merged into another one.
+ * Puts and invalidations run inside a compute on the reverse index entry of the recipient, so they can't interleave
+ * and leave a cached entry behind that the index doesn't know about.
+ */
+class RecipientAddressCache {
+
+    private final Map<ServiceId, RecipientWithAddress> recipients = new ConcurrentHashMap<>();
+    // The sets are only accessed inside a compute of their entry
+    private final Map<Long, Set<ServiceId>> serviceIdsByRecipientId = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @return the cached recipient or null, a miss has to be counted with {@link #recordMiss()} by the caller, when
+     * it reads the recipient from the database
+     */
+    RecipientWithAddress get(ServiceId serviceId) {
+        final var recipient = recipients.get(serviceId);
+        if (recipient != null) {
+            hits.increment();
+        }
+        return recipient;
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void put(ServiceId serviceId, RecipientWithAddress recipient) {
+        // If the service id belonged to another recipient before, its leftover index entry is harmless, invalidate
+        // only removes cached entries that still belong to the invalidated recipient
+        serviceIdsByRecipientId.compute(recipient.id().id(), (k, serviceIds) -> {
+            final var ids = serviceIds == null ? new HashSet<ServiceId>() : serviceIds;
+            ids.add(serviceId);
+            recipients.put(serviceId, recipient);
+            return ids;
+        });
+    }
+
+    void invalidate(long recipientId) {
+        serviceIdsByRecipientId.computeIfPresent(recipientId, (k, serviceIds) -> {
+            for (final var serviceId : serviceIds) {
+                recipients.computeIfPresent(serviceId, (s, r) -> r.id().id() == recipientId ? null : r);
+            }
+            invalidations.increment();
+            return null;
+        });
+    }
+
+    CacheStats getStats() {
+        return new CacheStats("recipientAddresses",
+                hits.sum(),
+                misses.sum(),
+                invalidations.sum(),
+                0,
+                recipients.size());
+    }
+}
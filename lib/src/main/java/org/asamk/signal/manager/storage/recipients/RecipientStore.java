@@ -1,5 +1,6 @@
 package org.asamk.signal.manager.storage.recipients;
 
+import org.asamk.signal.manager.api.CacheStats;
 import org.asamk.signal.manager.api.Contact;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.Profile;
@@ -25,15 +26,18 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
 public class RecipientStore implements RecipientIdCreator, RecipientResolver, RecipientTrustedResolver, ContactsStore, ProfileStore {
 
     private static final Logger logger = LoggerFactory.getLogger(RecipientStore.class);
@@ -46,9 +50,10 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private final Database database;
 
     private final Object recipientsLock = new Object();
-    private final Map<Long, Long> recipientsMerged = new HashMap<>();
+    private final Map<Long, Long> recipientsMerged = new ConcurrentHashMap<>();
 
-    private final Map<ServiceId, RecipientWithAddress> recipientAddressCache = new HashMap<>();
+    private final RecipientAddressCache recipientAddressCache = new RecipientAddressCache();
+    private final PublishSubject<RecipientId> profileChanges = PublishSubject.create();
 
     public static void createSql(Connection connection) throws SQLException {
         // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
@@ -99,6 +104,17 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         this.database = database;
     }
 
+    /**
+     * Emits when the profile or profile key of a recipient has been stored.
+     */
+    public Observable<RecipientId> getProfileChanges() {
+        return profileChanges;
+    }
+
+    public CacheStats getCacheStats() {
+        return recipientAddressCache.getStats();
+    }
+
     public RecipientAddress resolveRecipientAddress(RecipientId recipientId) {
         final var sql = (
                 """
@@ -181,11 +197,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     @Override
     public RecipientId resolveRecipient(final ServiceId serviceId) {
+        final var recipientWithAddress = recipientAddressCache.get(serviceId);
+        if (recipientWithAddress != null) {
+            return recipientWithAddress.id();
+        }
         synchronized (recipientsLock) {
-            final var recipientWithAddress = recipientAddressCache.get(serviceId);
-            if (recipientWithAddress != null) {
-                return recipientWithAddress.id();
-            }
             try (final var connection = database.getConnection()) {
                 connection.setAutoCommit(false);
                 final var recipientId = resolveRecipientLocked(connection, serviceId);
@@ -455,7 +471,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     public void deleteRecipientData(RecipientId recipientId) {
         logger.debug("Deleting recipient data for {}", recipientId);
         synchronized (recipientsLock) {
-            recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
+            recipientAddressCache.invalidate(recipientId.id());
             try (final var connection = database.getConnection()) {
                 connection.setAutoCommit(false);
                 storeContact(connection, recipientId, null);
@@ -504,6 +520,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
+        profileChanges.onNext(recipientId);
     }
 
     @Override
@@ -513,6 +530,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         } catch (SQLException e) {
             throw new RuntimeException("Failed update recipient store", e);
         }
+        profileChanges.onNext(recipientId);
     }
 
     @Override
@@ -716,7 +734,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                     recipientMergeHandler.mergeRecipients(connection, pair.first(), toBeMergedRecipientId);
                     deleteRecipient(connection, toBeMergedRecipientId);
                     synchronized (recipientsLock) {
-                        recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(toBeMergedRecipientId));
+                        recipientAddressCache.invalidate(toBeMergedRecipientId.id());
                     }
                 }
             } catch (SQLException e) {
@@ -813,7 +831,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     private void removeRecipientAddress(Connection connection, RecipientId recipientId) throws SQLException {
         synchronized (recipientsLock) {
-            recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
+            recipientAddressCache.invalidate(recipientId.id());
             final var sql = (
                     """
                     UPDATE %s
@@ -832,7 +850,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             Connection connection, RecipientId recipientId, final RecipientAddress address
     ) throws SQLException {
         synchronized (recipientsLock) {
-            recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
+            recipientAddressCache.invalidate(recipientId.id());
             final var sql = (
                     """
                     UPDATE %s
@@ -893,6 +911,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             storeProfile(connection, recipientId, toBeMergedProfile);
         }
 
+        recipientAddressCache.invalidate(toBeMergedRecipientId.id());
         recipientsMerged.put(toBeMergedRecipientId.id(), recipientId.id());
     }
 
@@ -933,6 +952,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         if (recipientWithAddress.isPresent()) {
             return recipientWithAddress;
         }
+        recipientAddressCache.recordMiss();
         final var sql = """
                         SELECT r._id, r.number, r.uuid, r.pni, r.username
                         FROM %s r
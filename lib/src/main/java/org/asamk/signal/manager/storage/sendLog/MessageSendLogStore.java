@@ -18,32 +18,64 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Optional;
-
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * Stores the sent messages for a day, so they can be sent again when a recipient fails to decrypt them.
+ * The entries are partitioned by their sent timestamp into hourly buckets, each with its own pair of tables. Entries
+ * are always looked up and deleted by their sent timestamp, so only a single bucket needs to be read, and outdated
+ * entries are removed by dropping whole buckets.
+ * New entries are written to the database in batches by a separate thread, at most {@link #FLUSH_DELAY} after they
+ * were added. All pending entries are written before the log is read or entries are deleted, so a retry receipt
+ * always finds the message.
+ */
 public class MessageSendLogStore implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageSendLogStore.class);
 
-    private static final String TABLE_MESSAGE_SEND_LOG = "message_send_log";
-    private static final String TABLE_MESSAGE_SEND_LOG_CONTENT = "message_send_log_content";
+    private static final String TABLE_MESSAGE_SEND_LOG = "message_send_log_";
+    private static final String TABLE_MESSAGE_SEND_LOG_CONTENT = "message_send_log_content_";
 
     private static final Duration LOG_DURATION = Duration.ofDays(1);
+    private static final Duration BUCKET_DURATION = Duration.ofHours(1);
+    // Content ids contain their bucket in the upper bits, so recipients can be added to an entry by its id alone
+    private static final int CONTENT_ID_BUCKET_SHIFT = 40;
+    private static final Duration FLUSH_DELAY = Duration.ofMillis(200);
+    private static final int MAX_BATCH_SIZE = 1000;
 
     private final Database database;
     private final Thread cleanupThread;
+    private final Thread writerThread;
     private final boolean sendLogDisabled;
 
+    private final Object flushLock = new Object();
+    private final Object contentIdLock = new Object();
+    private final NavigableSet<Long> buckets = new ConcurrentSkipListSet<>();
+    private final Map<Long, Long> lastContentIds = new HashMap<>();
+    private List<PendingContent> pendingContents = new ArrayList<>();
+    private List<PendingRecipient> pendingRecipients = new ArrayList<>();
+    private boolean closed = false;
+
     public MessageSendLogStore(final Database database, final boolean disableMessageSendLog) {
         this.database = database;
         this.sendLogDisabled = disableMessageSendLog;
+        loadBuckets();
         this.cleanupThread = Thread.ofPlatform().name("msl-cleanup").daemon().start(() -> {
             try {
-                final var interval = Duration.ofHours(1).toMillis();
+                final var interval = BUCKET_DURATION.toMillis();
                 while (!Thread.interrupted()) {
-                    try (final var connection = database.getConnection()) {
-                        deleteOutdatedEntries(connection);
+                    try {
+                        deleteOutdatedBuckets();
                     } catch (SQLException e) {
                         logger.debug("MSL", e);
                         logger.warn("Deleting outdated entries failed");
@@ -55,19 +87,16 @@ public class MessageSendLogStore implements AutoCloseable {
                 logger.debug("Stopping msl cleanup thread");
             }
         });
+        this.writerThread = disableMessageSendLog
+                ? null
+                : Thread.ofPlatform().name("msl-writer").daemon().start(this::runWriter);
     }
 
-    public static void createSql(Connection connection) throws SQLException {
-        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+    private static void createBucketSql(Connection connection, long bucket) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration of the existing buckets in AccountDatabase
         try (final var statement = connection.createStatement()) {
             statement.executeUpdate("""
-                                    CREATE TABLE message_send_log (
-                                      _id INTEGER PRIMARY KEY,
-                                      content_id INTEGER NOT NULL REFERENCES message_send_log_content (_id) ON DELETE CASCADE,
-                                      address TEXT NOT NULL,
-                                      device_id INTEGER NOT NULL
-                                    ) STRICT;
-                                    CREATE TABLE message_send_log_content (
+                                    CREATE TABLE IF NOT EXISTS message_send_log_content_%1$d (
                                       _id INTEGER PRIMARY KEY,
                                       group_id BLOB,
                                       timestamp INTEGER NOT NULL,
@@ -75,25 +104,37 @@ public class MessageSendLogStore implements AutoCloseable {
                                       content_hint INTEGER NOT NULL,
                                       urgent INTEGER NOT NULL
                                     ) STRICT;
-                                    CREATE INDEX mslc_timestamp_index ON message_send_log_content (timestamp);
-                                    CREATE INDEX msl_recipient_index ON message_send_log (address, device_id, content_id);
-                                    CREATE INDEX msl_content_index ON message_send_log (content_id);
-                                    """);
+                                    CREATE TABLE IF NOT EXISTS message_send_log_%1$d (
+                                      _id INTEGER PRIMARY KEY,
+                                      content_id INTEGER NOT NULL REFERENCES message_send_log_content_%1$d (_id) ON DELETE CASCADE,
+                                      address TEXT NOT NULL,
+                                      device_id INTEGER NOT NULL
+                                    ) STRICT;
+                                    CREATE INDEX IF NOT EXISTS mslc_timestamp_index_%1$d ON message_send_log_content_%1$d (timestamp);
+                                    CREATE INDEX IF NOT EXISTS msl_recipient_index_%1$d ON message_send_log_%1$d (address, device_id, content_id);
+                                    CREATE INDEX IF NOT EXISTS msl_content_index_%1$d ON message_send_log_%1$d (content_id);
+                                    """.formatted(bucket));
         }
     }
 
     public List<MessageSendLogEntry> findMessages(
             final ServiceId serviceId, final int deviceId, final long timestamp, final boolean isSenderKey
     ) {
+        if (isOutdated(timestamp)) {
+            return List.of();
+        }
+        flush();
+        final var bucket = getBucket(timestamp);
+        if (!buckets.contains(bucket)) {
+            return List.of();
+        }
         final var sql = """
                         SELECT group_id, content, content_hint, urgent
                         FROM %s l
                              INNER JOIN %s lc ON l.content_id = lc._id
                         WHERE l.address = ? AND l.device_id = ? AND lc.timestamp = ?
-                        """.formatted(TABLE_MESSAGE_SEND_LOG, TABLE_MESSAGE_SEND_LOG_CONTENT);
+                        """.formatted(TABLE_MESSAGE_SEND_LOG + bucket, TABLE_MESSAGE_SEND_LOG_CONTENT + bucket);
         try (final var connection = database.getConnection()) {
-            deleteOutdatedEntries(connection);
-
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setString(1, serviceId.toString());
                 statement.setInt(2, deviceId);
@@ -181,10 +222,15 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     public void deleteEntryForGroup(long sentTimestamp, GroupId groupId) {
+        flush();
+        final var bucket = getBucket(sentTimestamp);
+        if (!buckets.contains(bucket)) {
+            return;
+        }
         final var sql = """
                         DELETE FROM %s AS lc
                         WHERE lc.timestamp = ? AND lc.group_id = ?
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
+                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT + bucket);
         try (final var connection = database.getConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setLong(1, sentTimestamp);
@@ -197,10 +243,15 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     public void deleteEntryForRecipientNonGroup(long sentTimestamp, ServiceId serviceId) {
+        flush();
+        final var bucket = getBucket(sentTimestamp);
+        if (!buckets.contains(bucket)) {
+            return;
+        }
         final var sql = """
                         DELETE FROM %s AS lc
                         WHERE lc.timestamp = ? AND lc.group_id IS NULL AND lc._id IN (SELECT content_id FROM %s l WHERE l.address = ?)
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG);
+                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT + bucket, TABLE_MESSAGE_SEND_LOG + bucket);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             try (final var statement = connection.prepareStatement(sql)) {
@@ -209,7 +260,7 @@ public class MessageSendLogStore implements AutoCloseable {
                 statement.executeUpdate();
             }
 
-            deleteOrphanedLogContents(connection);
+            deleteOrphanedLogContents(connection, bucket);
             connection.commit();
         } catch (SQLException e) {
             logger.warn("Failed delete from message send log", e);
@@ -221,28 +272,76 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     public void deleteEntriesForRecipient(List<Long> sentTimestamps, ServiceId serviceId, int deviceId) {
-        final var sql = """
-                        DELETE FROM %s AS l
-                        WHERE l.content_id IN (SELECT _id FROM %s lc WHERE lc.timestamp = ?) AND l.address = ? AND l.device_id = ?
-                        """.formatted(TABLE_MESSAGE_SEND_LOG, TABLE_MESSAGE_SEND_LOG_CONTENT);
+        flush();
+        final var timestampsByBucket = sentTimestamps.stream()
+                .collect(Collectors.groupingBy(MessageSendLogStore::getBucket, TreeMap::new, Collectors.toList()));
+        timestampsByBucket.keySet().retainAll(buckets);
+        if (timestampsByBucket.isEmpty()) {
+            return;
+        }
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
-            try (final var statement = connection.prepareStatement(sql)) {
-                for (final var sentTimestamp : sentTimestamps) {
-                    statement.setLong(1, sentTimestamp);
-                    statement.setString(2, serviceId.toString());
-                    statement.setInt(3, deviceId);
-                    statement.executeUpdate();
+            for (final var entry : timestampsByBucket.entrySet()) {
+                final var bucket = entry.getKey();
+                final var sql = """
+                                DELETE FROM %s AS l
+                                WHERE l.content_id IN (SELECT _id FROM %s lc WHERE lc.timestamp = ?) AND l.address = ? AND l.device_id = ?
+                                """.formatted(TABLE_MESSAGE_SEND_LOG + bucket, TABLE_MESSAGE_SEND_LOG_CONTENT + bucket);
+                try (final var statement = connection.prepareStatement(sql)) {
+                    for (final var sentTimestamp : entry.getValue()) {
+                        statement.setLong(1, sentTimestamp);
+                        statement.setString(2, serviceId.toString());
+                        statement.setInt(3, deviceId);
+                        statement.executeUpdate();
+                    }
                 }
-            }
 
-            deleteOrphanedLogContents(connection);
+                deleteOrphanedLogContents(connection, bucket);
+            }
             connection.commit();
         } catch (SQLException e) {
             logger.warn("Failed delete from message send log", e);
         }
     }
 
+    /**
+     * Write all pending entries to the database.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final List<PendingContent> contents;
+            final List<PendingRecipient> recipients;
+            synchronized (this) {
+                if (pendingContents.isEmpty() && pendingRecipients.isEmpty()) {
+                    return;
+                }
+                contents = pendingContents;
+                recipients = pendingRecipients;
+                pendingContents = new ArrayList<>();
+                pendingRecipients = new ArrayList<>();
+            }
+            final var newBuckets = contents.stream()
+                    .map(c -> getBucketOfContentId(c.id()))
+                    .filter(b -> !buckets.contains(b))
+                    .collect(Collectors.toSet());
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                for (final var bucket : newBuckets) {
+                    createBucketSql(connection, bucket);
+                }
+                insertContents(contents, connection);
+                insertRecipients(recipients, connection);
+                connection.commit();
+                buckets.addAll(newBuckets);
+                logger.trace("Wrote {} contents and {} recipients to the message send log",
+                        contents.size(),
+                        recipients.size());
+            } catch (SQLException e) {
+                logger.warn("Failed to insert into message send log", e);
+            }
+        }
+    }
+
     @Override
     public void close() {
         cleanupThread.interrupt();
@@ -250,6 +349,46 @@ public class MessageSendLogStore implements AutoCloseable {
             cleanupThread.join();
         } catch (InterruptedException ignored) {
         }
+        if (writerThread != null) {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                writerThread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+        flush();
+    }
+
+    private void runWriter() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!closed && pendingContents.isEmpty() && pendingRecipients.isEmpty()) {
+                        wait();
+                    }
+                    // Wait a bit for more entries, so they are written in the same transaction
+                    final var deadline = System.currentTimeMillis() + FLUSH_DELAY.toMillis();
+                    var remaining = FLUSH_DELAY.toMillis();
+                    while (!closed && remaining > 0 && getPendingCount() < MAX_BATCH_SIZE) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    private int getPendingCount() {
+        return pendingContents.size() + pendingRecipients.size();
     }
 
     private RecipientDevices getRecipientDevices(final SendMessageResult sendMessageResult) {
@@ -268,40 +407,55 @@ public class MessageSendLogStore implements AutoCloseable {
             final ContentHint contentHint,
             final boolean urgent
     ) {
-        byte[] groupId = getGroupId(content);
+        if (isOutdated(sentTimestamp)) {
+            return -1;
+        }
+        final var contentId = nextContentId(getBucket(sentTimestamp));
+        if (contentId == -1) {
+            return -1;
+        }
+        final var pendingContent = new PendingContent(contentId,
+                sentTimestamp,
+                getGroupId(content),
+                content.encode(),
+                contentHint,
+                urgent);
+        synchronized (this) {
+            pendingContents.add(pendingContent);
+            addPendingRecipients(contentId, recipientDevices);
+            notifyAll();
+        }
+        return contentId;
+    }
 
-        final var sql = """
-                        INSERT INTO %s (timestamp, group_id, content, content_hint, urgent)
-                        VALUES (?,?,?,?,?)
-                        RETURNING _id
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            final long contentId;
-            try (final var statement = connection.prepareStatement(sql)) {
-                statement.setLong(1, sentTimestamp);
-                statement.setBytes(2, groupId);
-                statement.setBytes(3, content.encode());
-                statement.setInt(4, contentHint.getType());
-                statement.setBoolean(5, urgent);
-                final var generatedKey = Utils.executeQueryForOptional(statement, Utils::getIdMapper);
-                if (generatedKey.isPresent()) {
-                    contentId = generatedKey.get();
-                } else {
-                    contentId = -1;
+    /**
+     * Content ids are assigned here instead of by the database, so they are known before the content is written.
+     */
+    private long nextContentId(final long bucket) {
+        synchronized (contentIdLock) {
+            var lastContentId = lastContentIds.get(bucket);
+            if (lastContentId == null) {
+                lastContentId = bucket << CONTENT_ID_BUCKET_SHIFT;
+                if (buckets.contains(bucket)) {
+                    final var sql = """
+                                    SELECT MAX(_id) FROM %s
+                                    """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT + bucket);
+                    try (final var connection = database.getConnection()) {
+                        try (final var statement = connection.prepareStatement(sql)) {
+                            try (final var result = statement.executeQuery()) {
+                                if (result.next()) {
+                                    lastContentId = Math.max(lastContentId, result.getLong(1));
+                                }
+                            }
+                        }
+                    } catch (SQLException e) {
+                        logger.warn("Failed to read from message send log", e);
+                        return -1;
+                    }
                 }
             }
-            if (contentId == -1) {
-                logger.warn("Failed to insert message send log content");
-                return -1;
-            }
-            insertRecipientsForExistingContent(contentId, recipientDevices, connection);
-
-            connection.commit();
-            return contentId;
-        } catch (SQLException e) {
-            logger.warn("Failed to insert into message send log", e);
-            return -1;
+            lastContentIds.put(bucket, ++lastContentId);
+            return lastContentId;
         }
     }
 
@@ -324,60 +478,158 @@ public class MessageSendLogStore implements AutoCloseable {
     private void insertRecipientsForExistingContent(
             final long contentId, final List<RecipientDevices> recipientDevices
     ) {
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            insertRecipientsForExistingContent(contentId, recipientDevices, connection);
-            connection.commit();
-        } catch (SQLException e) {
-            logger.warn("Failed to append recipients to message send log", e);
+        synchronized (this) {
+            addPendingRecipients(contentId, recipientDevices);
+            notifyAll();
         }
     }
 
-    private void insertRecipientsForExistingContent(
-            final long contentId, final List<RecipientDevices> recipientDevices, final Connection connection
+    private void addPendingRecipients(final long contentId, final List<RecipientDevices> recipientDevices) {
+        for (final var recipientDevice : recipientDevices) {
+            for (final var deviceId : recipientDevice.deviceIds()) {
+                pendingRecipients.add(new PendingRecipient(contentId, recipientDevice.serviceId(), deviceId));
+            }
+        }
+    }
+
+    private void insertContents(
+            final List<PendingContent> contents, final Connection connection
     ) throws SQLException {
-        final var sql = """
-                        INSERT INTO %s (address, device_id, content_id)
-                        VALUES (?,?,?)
-                        """.formatted(TABLE_MESSAGE_SEND_LOG);
-        try (final var statement = connection.prepareStatement(sql)) {
-            for (final var recipientDevice : recipientDevices) {
-                for (final var deviceId : recipientDevice.deviceIds()) {
-                    statement.setString(1, recipientDevice.serviceId().toString());
-                    statement.setInt(2, deviceId);
-                    statement.setLong(3, contentId);
+        final var contentsByBucket = contents.stream()
+                .collect(Collectors.groupingBy(c -> getBucketOfContentId(c.id())));
+        for (final var entry : contentsByBucket.entrySet()) {
+            final var sql = """
+                            INSERT INTO %s (_id, timestamp, group_id, content, content_hint, urgent)
+                            VALUES (?,?,?,?,?,?)
+                            """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT + entry.getKey());
+            try (final var statement = connection.prepareStatement(sql)) {
+                for (final var content : entry.getValue()) {
+                    statement.setLong(1, content.id());
+                    statement.setLong(2, content.timestamp());
+                    statement.setBytes(3, content.groupId());
+                    statement.setBytes(4, content.content());
+                    statement.setInt(5, content.contentHint().getType());
+                    statement.setBoolean(6, content.urgent());
                     statement.executeUpdate();
                 }
             }
         }
     }
 
-    private void deleteOutdatedEntries(final Connection connection) throws SQLException {
+    private void insertRecipients(
+            final List<PendingRecipient> recipients, final Connection connection
+    ) throws SQLException {
+        final var recipientsByBucket = recipients.stream()
+                .collect(Collectors.groupingBy(r -> getBucketOfContentId(r.contentId())));
+        for (final var entry : recipientsByBucket.entrySet()) {
+            if (!buckets.contains(entry.getKey()) && !isBucketCreated(connection, entry.getKey())) {
+                // The bucket has been dropped while the message was still being sent
+                continue;
+            }
+            final var sql = """
+                            INSERT INTO %s (address, device_id, content_id)
+                            VALUES (?,?,?)
+                            """.formatted(TABLE_MESSAGE_SEND_LOG + entry.getKey());
+            try (final var statement = connection.prepareStatement(sql)) {
+                for (final var recipient : entry.getValue()) {
+                    statement.setString(1, recipient.serviceId().toString());
+                    statement.setInt(2, recipient.deviceId());
+                    statement.setLong(3, recipient.contentId());
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private void loadBuckets() {
         final var sql = """
-                        DELETE FROM %s
-                        WHERE timestamp < ?
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
+                        SELECT name FROM sqlite_master
+                        WHERE type = 'table' AND name LIKE 'message_send_log_content_%'
+                        """;
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getBucketFromResultSet)) {
+                    result.filter(Objects::nonNull).forEach(buckets::add);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed read from message send log", e);
+        }
+    }
+
+    private boolean isBucketCreated(final Connection connection, final long bucket) throws SQLException {
+        final var sql = """
+                        SELECT COUNT(*) FROM sqlite_master
+                        WHERE type = 'table' AND name = ?
+                        """;
         try (final var statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, System.currentTimeMillis() - LOG_DURATION.toMillis());
-            final var rowCount = statement.executeUpdate();
-            if (rowCount > 0) {
-                logger.debug("Removed {} outdated entries from the message send log", rowCount);
-            } else {
-                logger.trace("No outdated entries to be removed from message send log.");
+            statement.setString(1, TABLE_MESSAGE_SEND_LOG_CONTENT + bucket);
+            try (final var result = statement.executeQuery()) {
+                return result.next() && result.getInt(1) > 0;
             }
         }
     }
 
-    private void deleteOrphanedLogContents(final Connection connection) throws SQLException {
+    private void deleteOutdatedBuckets() throws SQLException {
+        final Set<Long> outdatedBuckets = buckets.headSet(getBucket(System.currentTimeMillis()
+                - LOG_DURATION.toMillis()));
+        if (outdatedBuckets.isEmpty()) {
+            logger.trace("No outdated entries to be removed from message send log.");
+            return;
+        }
+        synchronized (flushLock) {
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                for (final var bucket : outdatedBuckets) {
+                    try (final var statement = connection.createStatement()) {
+                        statement.executeUpdate("""
+                                                DROP TABLE %s;
+                                                DROP TABLE %s;
+                                                """.formatted(TABLE_MESSAGE_SEND_LOG + bucket,
+                                TABLE_MESSAGE_SEND_LOG_CONTENT + bucket));
+                    }
+                }
+                connection.commit();
+            }
+            logger.debug("Removed {} outdated buckets from the message send log", outdatedBuckets.size());
+            synchronized (contentIdLock) {
+                lastContentIds.keySet().removeAll(outdatedBuckets);
+            }
+            outdatedBuckets.clear();
+        }
+    }
+
+    private void deleteOrphanedLogContents(final Connection connection, final long bucket) throws SQLException {
         final var sql = """
                         DELETE FROM %s
                         WHERE _id NOT IN (SELECT content_id FROM %s)
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG);
+                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT + bucket, TABLE_MESSAGE_SEND_LOG + bucket);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.executeUpdate();
         }
     }
 
+    private static boolean isOutdated(final long timestamp) {
+        return timestamp < System.currentTimeMillis() - LOG_DURATION.toMillis();
+    }
+
+    private static long getBucket(final long timestamp) {
+        return Math.floorDiv(timestamp, BUCKET_DURATION.toMillis());
+    }
+
+    private static long getBucketOfContentId(final long contentId) {
+        return contentId >>> CONTENT_ID_BUCKET_SHIFT;
+    }
+
+    private Long getBucketFromResultSet(ResultSet resultSet) throws SQLException {
+        final var name = resultSet.getString("name");
+        try {
+            return Long.parseLong(name.substring(TABLE_MESSAGE_SEND_LOG_CONTENT.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private MessageSendLogEntry getMessageSendLogEntryFromResultSet(ResultSet resultSet) throws SQLException {
         final var groupId = Optional.ofNullable(resultSet.getBytes("group_id")).map(GroupId::unknownVersion);
         final Content content;
@@ -393,4 +645,10 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     private record RecipientDevices(ServiceId serviceId, List<Integer> deviceIds) {}
+
+    private record PendingContent(
+            long id, long timestamp, byte[] groupId, byte[] content, ContentHint contentHint, boolean urgent
+    ) {}
+
+    private record PendingRecipient(long contentId, ServiceId serviceId, int deviceId) {}
 }
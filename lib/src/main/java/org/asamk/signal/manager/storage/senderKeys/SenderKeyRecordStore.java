@@ -50,7 +50,7 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     public SenderKeyRecord loadSenderKey(final SignalProtocolAddress address, final UUID distributionId) {
         final var key = getKey(address, distributionId);
 
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             return loadSenderKey(connection, key);
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from sender key store", e);
@@ -63,8 +63,11 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     ) {
         final var key = getKey(address, distributionId);
 
-        try (final var connection = database.getConnection()) {
-            storeSenderKey(connection, key, record);
+        try {
+            database.executeWrite(connection -> {
+                storeSenderKey(connection, key, record);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update sender key store", e);
         }
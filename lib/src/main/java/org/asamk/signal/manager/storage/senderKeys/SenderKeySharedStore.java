@@ -45,7 +45,7 @@ public class SenderKeySharedStore {
     }
 
     public Set<SignalProtocolAddress> getSenderKeySharedWith(final DistributionId distributionId) {
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             final var sql = (
                     """
                     SELECT s.address, s.device_id
@@ -71,10 +71,11 @@ public class SenderKeySharedStore {
                 .map(a -> new SenderKeySharedEntry(a.getName(), a.getDeviceId()))
                 .collect(Collectors.toSet());
 
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            markSenderKeysSharedWith(connection, distributionId, newEntries);
-            connection.commit();
+        try {
+            database.executeWrite(connection -> {
+                markSenderKeysSharedWith(connection, distributionId, newEntries);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update shared sender key store", e);
         }
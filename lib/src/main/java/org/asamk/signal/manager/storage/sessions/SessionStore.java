@@ -1,6 +1,8 @@
 package org.asamk.signal.manager.storage.sessions;
 
+import org.asamk.signal.manager.api.CacheStats;
 import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.BoundedCache;
 import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
 import org.signal.libsignal.protocol.NoSessionException;
@@ -18,8 +20,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -29,8 +31,7 @@ public class SessionStore implements SignalServiceSessionStore {
     private static final String TABLE_SESSION = "session";
     private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
 
-    private final Map<Key, SessionRecord> cachedSessions = new HashMap<>();
-
+    private final BoundedCache<String, Key, SessionRecord> cachedSessions;
     private final Database database;
     private final int accountIdType;
 
@@ -50,15 +51,25 @@ public class SessionStore implements SignalServiceSessionStore {
         }
     }
 
-    public SessionStore(final Database database, final ServiceIdType serviceIdType) {
+    /**
+     * @param cacheSize maximum number of session records kept in memory
+     */
+    public SessionStore(final Database database, final ServiceIdType serviceIdType, final int cacheSize) {
         this.database = database;
         this.accountIdType = Utils.getAccountIdType(serviceIdType);
+        this.cachedSessions = new BoundedCache<>(serviceIdType.name().toLowerCase(Locale.ROOT) + "Sessions",
+                cacheSize,
+                Key::address);
+    }
+
+    public CacheStats getCacheStats() {
+        return cachedSessions.getStats();
     }
 
     @Override
     public SessionRecord loadSession(SignalProtocolAddress address) {
         final var key = getKey(address);
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             final var session = loadSession(connection, key);
             return Objects.requireNonNullElseGet(session, SessionRecord::new);
         } catch (SQLException e) {
@@ -70,7 +81,7 @@ public class SessionStore implements SignalServiceSessionStore {
     public List<SessionRecord> loadExistingSessions(final List<SignalProtocolAddress> addresses) throws NoSessionException {
         final var keys = addresses.stream().map(this::getKey).toList();
 
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             final var sessions = new ArrayList<SessionRecord>();
             for (final var key : keys) {
                 final var sessionRecord = loadSession(connection, key);
@@ -106,7 +117,7 @@ public class SessionStore implements SignalServiceSessionStore {
                 WHERE s.account_id_type = ? AND s.address = ? AND s.device_id != 1
                 """
         ).formatted(TABLE_SESSION);
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setInt(1, accountIdType);
                 statement.setString(2, serviceId.toString());
@@ -120,7 +131,7 @@ public class SessionStore implements SignalServiceSessionStore {
     public boolean isCurrentRatchetKey(ServiceId serviceId, int deviceId, ECPublicKey ratchetKey) {
         final var key = new Key(serviceId.toString(), deviceId);
 
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             final var session = loadSession(connection, key);
             if (session == null) {
                 return false;
@@ -135,10 +146,13 @@ public class SessionStore implements SignalServiceSessionStore {
     public void storeSession(SignalProtocolAddress address, SessionRecord session) {
         final var key = getKey(address);
 
-        try (final var connection = database.getConnection()) {
-            storeSession(connection, key, session);
+        try {
+            database.executeWrite(connection -> {
+                storeSession(connection, key, session);
+                return null;
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed read from session store", e);
+            throw new RuntimeException("Failed update session store", e);
         }
     }
 
@@ -146,7 +160,7 @@ public class SessionStore implements SignalServiceSessionStore {
     public boolean containsSession(SignalProtocolAddress address) {
         final var key = getKey(address);
 
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             final var session = loadSession(connection, key);
             return isActive(session);
         } catch (SQLException e) {
@@ -158,8 +172,11 @@ public class SessionStore implements SignalServiceSessionStore {
     public void deleteSession(SignalProtocolAddress address) {
         final var key = getKey(address);
 
-        try (final var connection = database.getConnection()) {
-            deleteSession(connection, key);
+        try {
+            database.executeWrite(connection -> {
+                deleteSession(connection, key);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update session store", e);
         }
@@ -172,8 +189,11 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     public void deleteAllSessions(ServiceId serviceId) {
-        try (final var connection = database.getConnection()) {
-            deleteAllSessions(connection, serviceId.toString());
+        try {
+            database.executeWrite(connection -> {
+                deleteAllSessions(connection, serviceId.toString());
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update session store", e);
         }
@@ -183,14 +203,15 @@ public class SessionStore implements SignalServiceSessionStore {
     public void archiveSession(final SignalProtocolAddress address) {
         final var key = getKey(address);
 
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            final var session = loadSession(connection, key);
-            if (session != null) {
-                session.archiveCurrentState();
-                storeSession(connection, key, session);
-                connection.commit();
-            }
+        try {
+            database.executeWrite(connection -> {
+                final var session = loadSession(connection, key);
+                if (session != null) {
+                    session.archiveCurrentState();
+                    storeSession(connection, key, session);
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update session store", e);
         }
@@ -208,7 +229,7 @@ public class SessionStore implements SignalServiceSessionStore {
                 WHERE s.account_id_type = ? AND s.address IN (%s)
                 """
         ).formatted(TABLE_SESSION, serviceIdsCommaSeparated);
-        try (final var connection = database.getConnection()) {
+        try (final var connection = database.getReadConnection()) {
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setInt(1, accountIdType);
                 return Utils.executeQueryForStream(statement,
@@ -230,21 +251,22 @@ public class SessionStore implements SignalServiceSessionStore {
                 WHERE s.account_id_type = ?
                 """
         ).formatted(TABLE_SESSION);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            final List<Pair<Key, SessionRecord>> records;
-            try (final var statement = connection.prepareStatement(sql)) {
-                statement.setInt(1, accountIdType);
-                records = Utils.executeQueryForStream(statement,
-                                res -> new Pair<>(getKeyFromResultSet(res), getSessionRecordFromResultSet(res)))
-                        .filter(Objects::nonNull)
-                        .toList();
-            }
-            for (final var record : records) {
-                record.second().archiveCurrentState();
-                storeSession(connection, record.first(), record.second());
-            }
-            connection.commit();
+        try {
+            database.executeWrite(connection -> {
+                final List<Pair<Key, SessionRecord>> records;
+                try (final var statement = connection.prepareStatement(sql)) {
+                    statement.setInt(1, accountIdType);
+                    records = Utils.executeQueryForStream(statement,
+                                    res -> new Pair<>(getKeyFromResultSet(res), getSessionRecordFromResultSet(res)))
+                            .filter(Objects::nonNull)
+                            .toList();
+                }
+                for (final var record : records) {
+                    record.second().archiveCurrentState();
+                    storeSession(connection, record.first(), record.second());
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update session store", e);
         }
@@ -258,22 +280,23 @@ public class SessionStore implements SignalServiceSessionStore {
                 WHERE s.account_id_type = ? AND s.address = ?
                 """
         ).formatted(TABLE_SESSION);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            final List<Pair<Key, SessionRecord>> records;
-            try (final var statement = connection.prepareStatement(sql)) {
-                statement.setInt(1, accountIdType);
-                statement.setString(2, serviceId.toString());
-                records = Utils.executeQueryForStream(statement,
-                                res -> new Pair<>(getKeyFromResultSet(res), getSessionRecordFromResultSet(res)))
-                        .filter(Objects::nonNull)
-                        .toList();
-            }
-            for (final var record : records) {
-                record.second().archiveCurrentState();
-                storeSession(connection, record.first(), record.second());
-            }
-            connection.commit();
+        try {
+            database.executeWrite(connection -> {
+                final List<Pair<Key, SessionRecord>> records;
+                try (final var statement = connection.prepareStatement(sql)) {
+                    statement.setInt(1, accountIdType);
+                    statement.setString(2, serviceId.toString());
+                    records = Utils.executeQueryForStream(statement,
+                                    res -> new Pair<>(getKeyFromResultSet(res), getSessionRecordFromResultSet(res)))
+                            .filter(Objects::nonNull)
+                            .toList();
+                }
+                for (final var record : records) {
+                    record.second().archiveCurrentState();
+                    storeSession(connection, record.first(), record.second());
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update session store", e);
         }
@@ -299,11 +322,9 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     private SessionRecord loadSession(Connection connection, final Key key) throws SQLException {
-        synchronized (cachedSessions) {
-            final var session = cachedSessions.get(key);
-            if (session != null) {
-                return session;
-            }
+        final var cachedSession = cachedSessions.get(key);
+        if (cachedSession != null) {
+            return cachedSession;
         }
         final var sql = (
                 """
@@ -339,9 +360,7 @@ public class SessionStore implements SignalServiceSessionStore {
     private void storeSession(
             final Connection connection, final Key key, final SessionRecord session
     ) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.put(key, session);
-        }
+        cachedSessions.put(key, session);
 
         final var sql = """
                         INSERT OR REPLACE INTO %s (account_id_type, address, device_id, record)
@@ -357,9 +376,7 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     private void deleteAllSessions(final Connection connection, final String address) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.clear();
-        }
+        cachedSessions.invalidateGroup(address);
 
         final var sql = (
                 """
@@ -375,9 +392,7 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     private void deleteSession(Connection connection, final Key key) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.remove(key);
-        }
+        cachedSessions.invalidate(key);
 
         final var sql = (
                 """
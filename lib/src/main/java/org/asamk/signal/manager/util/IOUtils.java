@@ -3,9 +3,11 @@ package org.asamk.signal.manager.util;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
@@ -63,9 +65,27 @@ public class IOUtils {
     }
 
     public static void copyStream(InputStream input, OutputStream output) throws IOException {
+        if (input instanceof FileInputStream fileInput && output instanceof FileOutputStream fileOutput) {
+            // Let the OS copy file to file without going through a user space buffer
+            transferFully(fileInput.getChannel(), fileOutput.getChannel());
+            return;
+        }
         copyStream(input, output, 4096);
     }
 
+    private static void transferFully(FileChannel input, FileChannel output) throws IOException {
+        var position = input.position();
+        final var size = input.size();
+        while (position < size) {
+            final var transferred = input.transferTo(position, size - position, output);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        input.position(position);
+    }
+
     public static void copyStream(InputStream input, OutputStream output, int bufferSize) throws IOException {
         var buffer = new byte[bufferSize];
         int read;
@@ -0,0 +1,60 @@
+package org.asamk.signal.manager.storage;
+
+import org.asamk.signal.manager.api.DatabaseProfile;
+import org.asamk.signal.manager.storage.keyValue.KeyValueEntry;
+import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the write and read throughput of the database profiles, run it with SIGNAL_BENCHMARK=true.
+ * The results are published as report entries of the test.
+ */
+@EnabledIfEnvironmentVariable(named = "SIGNAL_BENCHMARK", matches = "true")
+class DatabaseProfileBenchmark {
+
+    private static final int WRITES = 2_000;
+    private static final int READS = 20_000;
+    private static final int KEYS = 100;
+
+    @TempDir
+    File tempDir;
+
+    @ParameterizedTest
+    @EnumSource(DatabaseProfile.class)
+    void benchmark(DatabaseProfile profile, TestReporter testReporter) throws SQLException {
+        try (final var database = AccountDatabase.init(new File(tempDir, "account.db"), profile)) {
+            final var store = new KeyValueStore(database);
+
+            var start = System.nanoTime();
+            for (var i = 0; i < WRITES; i++) {
+                store.storeEntry(new KeyValueEntry<>("key-" + i % KEYS, long.class), (long) i);
+            }
+            final var writesPerSecond = WRITES * 1_000_000_000L / (System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (var i = 0; i < READS; i++) {
+                store.getEntry(new KeyValueEntry<>("key-" + i % KEYS, long.class));
+            }
+            final var readsPerSecond = READS * 1_000_000_000L / (System.nanoTime() - start);
+
+            testReporter.publishEntry(Map.of("profile",
+                    profile.name(),
+                    "writesPerSecond",
+                    String.valueOf(writesPerSecond),
+                    "readsPerSecond",
+                    String.valueOf(readsPerSecond)));
+            final var lastKey = new KeyValueEntry<>("key-" + (WRITES - 1) % KEYS, long.class);
+            assertEquals((long) (WRITES - 1), store.getEntry(lastKey));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.asamk.signal.manager.storage.envelopes;
+
+import org.asamk.signal.manager.api.DatabaseProfile;
+import org.asamk.signal.manager.storage.AccountDatabase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReceivedEnvelopeStoreTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void addedEnvelopeIsDuplicate() throws SQLException {
+        try (final var database = initDatabase()) {
+            final var store = new ReceivedEnvelopeStore(database);
+            assertFalse(store.contains("guid-1", 1));
+            store.add("guid-1", 1);
+            assertTrue(store.contains("guid-1", 1));
+            assertFalse(store.contains("guid-1", 2));
+            assertFalse(store.contains("guid-2", 1));
+        }
+    }
+
+    @Test
+    void envelopeIsOnlyDuplicateOnceAdded() throws SQLException {
+        try (final var database = initDatabase()) {
+            final var store = new ReceivedEnvelopeStore(database);
+            // Storing the envelope failed, so it wasn't added and must be received again
+            assertFalse(store.contains("guid-1", 1));
+            assertFalse(store.contains("guid-1", 1));
+        }
+    }
+
+    @Test
+    void flushedEnvelopesSurviveRestart() throws SQLException {
+        try (final var database = initDatabase()) {
+            final var store = new ReceivedEnvelopeStore(database);
+            store.add("guid-1", 1);
+            store.flush();
+            store.add("guid-2", 2);
+        }
+
+        try (final var database = initDatabase()) {
+            final var store = new ReceivedEnvelopeStore(database);
+            assertTrue(store.contains("guid-1", 1));
+            assertFalse(store.contains("guid-2", 2));
+        }
+    }
+
+    @Test
+    void fullFilterHasFewFalsePositives() throws SQLException {
+        try (final var database = initDatabase()) {
+            final var store = new ReceivedEnvelopeStore(database);
+            for (var i = 0; i < 100_000; i++) {
+                store.add("guid-" + i, i);
+            }
+            var falsePositives = 0;
+            for (var i = 100_000; i < 120_000; i++) {
+                if (store.contains("guid-" + i, i)) {
+                    falsePositives++;
+                }
+            }
+            // The expected rate is below 1 in 300 000
+            assertTrue(falsePositives <= 1, "Too many false positives: " + falsePositives);
+        }
+    }
+
+    private AccountDatabase initDatabase() throws SQLException {
+        return AccountDatabase.init(new File(tempDir, "account.db"), DatabaseProfile.DEFAULT);
+    }
+}
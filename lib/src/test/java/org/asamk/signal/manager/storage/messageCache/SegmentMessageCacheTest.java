@@ -0,0 +1,215 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.internal.push.Envelope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentMessageCacheTest {
+
+    // Large enough that a few dozen messages fill a segment
+    private static final String PADDING = "x".repeat(100_000);
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void cachedMessagesSurviveRestart() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            cache.cacheMessage(envelope(1), null);
+            final var deleted = cache.cacheMessage(envelope(2), null);
+            cache.cacheMessage(envelope(3), null);
+            deleted.delete();
+        }
+
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            assertEquals(Set.of(1L, 3L), getTimestamps(cache));
+        }
+    }
+
+    @Test
+    void enumeratedMessageEqualsCachedMessage() throws IOException {
+        try (final var cache = new SegmentMessageCache(new File(tempDir, "msg-log"), null)) {
+            final var cachedMessage = cache.cacheMessage(envelope(1), null);
+            try (final var messages = cache.getCachedMessages()) {
+                assertEquals(List.of(cachedMessage), messages.toList());
+            }
+        }
+    }
+
+    @Test
+    void replayStopsAtTruncatedRecord() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            cache.cacheMessage(envelope(1), null);
+            cache.cacheMessage(envelope(2), null);
+        }
+        final var segment = getSegmentFiles(segmentsPath).getFirst();
+        try (final var file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            assertEquals(Set.of(1L), getTimestamps(cache));
+            cache.cacheMessage(envelope(3), null);
+        }
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            assertEquals(Set.of(1L, 3L), getTimestamps(cache));
+        }
+    }
+
+    @Test
+    void replayStopsAtInvalidChecksum() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            cache.cacheMessage(envelope(1), null);
+            cache.cacheMessage(envelope(2), null);
+        }
+        final var segment = getSegmentFiles(segmentsPath).getFirst();
+        try (final var file = new RandomAccessFile(segment, "rw")) {
+            final var position = file.length() - 5;
+            file.seek(position);
+            final var value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        }
+
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            assertEquals(Set.of(1L), getTimestamps(cache));
+        }
+    }
+
+    @Test
+    void compactionRemovesDeadSegments() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            final var messages = new ArrayList<CachedMessage>();
+            for (var i = 0; i < 100; i++) {
+                messages.add(cache.cacheMessage(largeEnvelope(i), null));
+            }
+            // Keep one message of the first segment
+            for (var i = 1; i < 100; i++) {
+                messages.get(i).delete();
+            }
+            cache.compactSealedSegments();
+
+            assertFalse(new File(segmentsPath, "segment-0.log").exists());
+            assertEquals(Set.of(0L), getTimestamps(cache));
+        }
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            assertEquals(Set.of(0L), getTimestamps(cache));
+        }
+    }
+
+    @Test
+    void compactionKeepsMostlyLiveSegments() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            for (var i = 0; i < 100; i++) {
+                cache.cacheMessage(largeEnvelope(i), null);
+            }
+            final var segmentsBefore = getSegmentFiles(segmentsPath);
+            cache.compactSealedSegments();
+
+            assertEquals(segmentsBefore, getSegmentFiles(segmentsPath));
+            assertEquals(100, getTimestamps(cache).size());
+        }
+    }
+
+    @Test
+    void compactionKeepsTombstonesOfRemainingSegments() throws IOException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            final var messages = new ArrayList<CachedMessage>();
+            // Fills the first segment, which stays mostly live
+            for (var i = 0; i < 50; i++) {
+                messages.add(cache.cacheMessage(largeEnvelope(i), null));
+            }
+            // The tombstone is written to a later segment, that becomes dead afterwards
+            messages.getFirst().delete();
+            for (var i = 50; i < 150; i++) {
+                cache.cacheMessage(largeEnvelope(i), null).delete();
+            }
+            cache.compactSealedSegments();
+
+            assertTrue(new File(segmentsPath, "segment-0.log").exists());
+            assertFalse(getTimestamps(cache).contains(0L));
+        }
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            final var timestamps = getTimestamps(cache);
+            assertFalse(timestamps.contains(0L));
+            assertEquals(49, timestamps.size());
+        }
+    }
+
+    @Test
+    void importsFileCache() throws IOException {
+        final var legacyPath = new File(tempDir, "msg-cache");
+        final var recipientPath = new File(legacyPath, "5");
+        assertTrue(recipientPath.mkdirs());
+        MessageCacheUtils.storeEnvelope(envelope(1), new File(legacyPath, "1_1"));
+        MessageCacheUtils.storeEnvelope(envelope(2), new File(recipientPath, "2_2"));
+
+        try (final var cache = new SegmentMessageCache(new File(tempDir, "msg-log"), legacyPath)) {
+            assertEquals(Set.of(1L, 2L), getTimestamps(cache));
+        }
+        assertFalse(legacyPath.exists());
+    }
+
+    @Test
+    void exportsToFileCache() throws IOException, InterruptedException {
+        final var segmentsPath = new File(tempDir, "msg-log");
+        try (final var cache = new SegmentMessageCache(segmentsPath, null)) {
+            cache.cacheMessage(envelope(1), null);
+            cache.cacheMessage(envelope(2), null);
+        }
+
+        final var fileCache = new FileMessageCache(new File(tempDir, "msg-cache"));
+        SegmentMessageCache.exportMessages(segmentsPath, fileCache, recipientId -> {
+            throw new AssertionError("No recipient expected");
+        });
+
+        assertFalse(segmentsPath.exists());
+        // Messages cached in the current millisecond are not listed yet
+        Thread.sleep(2);
+        assertEquals(Set.of(1L, 2L), getTimestamps(fileCache));
+    }
+
+    private static SignalServiceEnvelope envelope(long timestamp) {
+        return new SignalServiceEnvelope(new Envelope.Builder().timestamp(timestamp).build(), timestamp);
+    }
+
+    private static SignalServiceEnvelope largeEnvelope(long timestamp) {
+        return new SignalServiceEnvelope(new Envelope.Builder().timestamp(timestamp).serverGuid(PADDING).build(),
+                timestamp);
+    }
+
+    private static Set<Long> getTimestamps(MessageCache cache) {
+        try (final var messages = cache.getCachedMessages()) {
+            return messages.map(CachedMessage::loadEnvelope)
+                    .filter(Objects::nonNull)
+                    .map(SignalServiceEnvelope::getTimestamp)
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private static List<File> getSegmentFiles(File segmentsPath) {
+        final var files = segmentsPath.listFiles((dir, name) -> name.startsWith("segment-"));
+        return files == null ? List.of() : List.of(files).stream().sorted().toList();
+    }
+}
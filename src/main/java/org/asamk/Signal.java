@@ -34,6 +34,10 @@ public interface Signal extends DBusInterface {
             String message, List<String> attachments, List<String> recipients
     ) throws Error.AttachmentInvalid, Error.Failure, Error.InvalidNumber, Error.UntrustedIdentity;
 
+    List<Long> sendBatch(
+            List<String> recipients, List<String> messages, List<String> attachments
+    ) throws Error.AttachmentInvalid, Error.Failure, Error.InvalidNumber;
+
     void sendTyping(
             String recipient, boolean stop
     ) throws Error.Failure, Error.UntrustedIdentity;
@@ -21,6 +21,8 @@ import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.Settings;
 import org.asamk.signal.manager.SignalAccountFiles;
 import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.DatabaseProfile;
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.NotRegisteredException;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustNewIdentity;
@@ -95,6 +97,36 @@ public class App {
                 .help("Disable message send log (for resending messages that recipient couldn't decrypt)")
                 .action(Arguments.storeTrue());
 
+        parser.addArgument("--message-cache")
+                .help("Choose how received messages are stored until they have been handled.")
+                .type(Arguments.enumStringType(MessageCacheTypeCli.class))
+                .setDefault(MessageCacheTypeCli.FILE);
+
+        parser.addArgument("--legacy-send-concurrency")
+                .help("Number of parallel sends to group members that don't support sender keys.")
+                .type(int.class)
+                .setDefault(1);
+
+        parser.addArgument("--send-rate-limit")
+                .help("Maximum number of messages sent per minute, to stay below the server rate limits.")
+                .type(int.class)
+                .setDefault(0);
+
+        parser.addArgument("--attachment-upload-threads")
+                .help("Number of attachments of a message that are uploaded in parallel.")
+                .type(int.class)
+                .setDefault(4);
+
+        parser.addArgument("--database-profile")
+                .help("Choose the SQLite settings of the account database.")
+                .type(Arguments.enumStringType(DatabaseProfileCli.class))
+                .setDefault(DatabaseProfileCli.DEFAULT);
+
+        parser.addArgument("--session-cache-size")
+                .help("Maximum number of sessions kept in memory for each identity of the account.")
+                .type(int.class)
+                .setDefault(10_000);
+
         var subparsers = parser.addSubparsers().title("subcommands").dest("command");
 
         Commands.getCommandSubparserAttachers().forEach((key, value) -> {
@@ -231,11 +263,32 @@ public class App {
 
         final var disableSendLog = Boolean.TRUE.equals(ns.getBoolean("disable-send-log"));
 
+        final var messageCacheTypeCli = ns.<MessageCacheTypeCli>get("message-cache");
+        final var messageCacheType = messageCacheTypeCli == MessageCacheTypeCli.SEGMENT_LOG
+                ? MessageCacheType.SEGMENT_LOG
+                : MessageCacheType.FILE;
+
+        final var legacySendConcurrency = ns.getInt("legacy-send-concurrency");
+        final var sendRateLimit = ns.getInt("send-rate-limit");
+        final var attachmentUploadThreads = ns.getInt("attachment-upload-threads");
+        final var databaseProfileCli = ns.<DatabaseProfileCli>get("database-profile");
+        final var databaseProfile = databaseProfileCli == DatabaseProfileCli.PERFORMANCE
+                ? DatabaseProfile.PERFORMANCE
+                : DatabaseProfile.DEFAULT;
+        final var sessionCacheSize = ns.getInt("session-cache-size");
+
         try {
             return new SignalAccountFiles(configPath,
                     serviceEnvironment,
                     BaseConfig.USER_AGENT,
-                    new Settings(trustNewIdentity, disableSendLog));
+                    new Settings(trustNewIdentity,
+                            disableSendLog,
+                            messageCacheType,
+                            legacySendConcurrency,
+                            sendRateLimit,
+                            attachmentUploadThreads,
+                            databaseProfile,
+                            sessionCacheSize));
         } catch (IOException e) {
             throw new IOErrorException("Failed to read local accounts list", e);
         }
@@ -0,0 +1,16 @@
+package org.asamk.signal;
+
+public enum DatabaseProfileCli {
+    DEFAULT {
+        @Override
+        public String toString() {
+            return "default";
+        }
+    },
+    PERFORMANCE {
+        @Override
+        public String toString() {
+            return "performance";
+        }
+    },
+}
@@ -0,0 +1,22 @@
+package org.asamk.signal;
+
+public enum HandlerOverflowPolicyCli {
+    BLOCK {
+        @Override
+        public String toString() {
+            return "block";
+        }
+    },
+    DROP_OLDEST {
+        @Override
+        public String toString() {
+            return "drop-oldest";
+        }
+    },
+    DISCONNECT {
+        @Override
+        public String toString() {
+            return "disconnect";
+        }
+    },
+}
@@ -0,0 +1,16 @@
+package org.asamk.signal;
+
+public enum MessageCacheTypeCli {
+    FILE {
+        @Override
+        public String toString() {
+            return "file";
+        }
+    },
+    SEGMENT_LOG {
+        @Override
+        public String toString() {
+            return "segment-log";
+        }
+    },
+}
@@ -17,6 +17,9 @@ public class Commands {
         addCommand(new FinishChangeNumberCommand());
         addCommand(new FinishLinkCommand());
         addCommand(new GetAttachmentCommand());
+        addCommand(new GetCacheMetricsCommand());
+        addCommand(new GetReceiveMetricsCommand());
+        addCommand(new GetSendMetricsCommand());
         addCommand(new GetUserStatusCommand());
         addCommand(new AddStickerPackCommand());
         addCommand(new JoinGroupCommand());
@@ -28,6 +31,7 @@ public class Commands {
         addCommand(new ListGroupsCommand());
         addCommand(new ListIdentitiesCommand());
         addCommand(new ListStickerPacksCommand());
+        addCommand(new PrepareRecipientsCommand());
         addCommand(new QuitGroupCommand());
         addCommand(new ReceiveCommand());
         addCommand(new RegisterCommand());
@@ -36,6 +40,7 @@ public class Commands {
         addCommand(new RemovePinCommand());
         addCommand(new RemoteDeleteCommand());
         addCommand(new SendCommand());
+        addCommand(new SendBatchCommand());
         addCommand(new SendContactsCommand());
         addCommand(new SendPaymentNotificationCommand());
         addCommand(new SendReactionCommand());
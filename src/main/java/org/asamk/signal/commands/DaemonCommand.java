@@ -4,6 +4,7 @@ import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
+import org.asamk.signal.HandlerOverflowPolicyCli;
 import org.asamk.signal.OutputType;
 import org.asamk.signal.ReceiveMessageHandler;
 import org.asamk.signal.Shutdown;
@@ -15,6 +16,7 @@ import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.jsonrpc.SocketHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
+import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
@@ -81,6 +83,29 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         subparser.addArgument("--send-read-receipts")
                 .help("Send read receipts for all incoming data messages (in addition to the default delivery receipts)")
                 .action(Arguments.storeTrue());
+        subparser.addArgument("--receive-batch-size")
+                .type(int.class)
+                .setDefault(1)
+                .help("Number of envelopes to retrieve from the server, store and acknowledge at once.");
+        subparser.addArgument("--receive-lanes")
+                .type(int.class)
+                .setDefault(1)
+                .help("Number of lanes to handle decrypted messages in parallel, messages of one sender stay in order.");
+        subparser.addArgument("--attachment-download-threads")
+                .type(int.class)
+                .setDefault(ReceiveConfig.DEFAULT_ATTACHMENT_DOWNLOAD_THREADS)
+                .help("Number of attachments to download in parallel.");
+        subparser.addArgument("--defer-attachment-downloads")
+                .help("Deliver received messages before their attachments are downloaded, and send an attachmentReady notification once an attachment is stored.")
+                .action(Arguments.storeTrue());
+        subparser.addArgument("--receive-handler-queue-size")
+                .type(int.class)
+                .setDefault(1000)
+                .help("Number of received messages that are queued for each subscriber that hasn't handled them yet.");
+        subparser.addArgument("--receive-handler-overflow")
+                .help("Specify what happens when a subscriber's queue is full.")
+                .type(Arguments.enumStringType(HandlerOverflowPolicyCli.class))
+                .setDefault(HandlerOverflowPolicyCli.BLOCK);
     }
 
     @Override
@@ -0,0 +1,46 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+public class GetCacheMetricsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getCacheMetrics";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Show the hit rates of the internal caches.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var stats = m.getCacheStats();
+        switch (outputWriter) {
+            case JsonWriter jsonWriter -> jsonWriter.write(stats);
+            case PlainTextWriter plainTextWriter -> {
+                for (final var s : stats) {
+                    plainTextWriter.println(
+                            "{}: hits {}, misses {}, hit rate {}%, invalidations {}, evictions {}, size {}",
+                            s.name(),
+                            s.hits(),
+                            s.misses(),
+                            Math.round(s.hitRate() * 1000) / 10.0,
+                            s.invalidations(),
+                            s.evictions(),
+                            s.size());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.json.JsonReceiveMetrics;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+public class GetReceiveMetricsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getReceiveMetrics";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help(
+                "Show latency percentiles of the receive path and the state of the receive handlers and action queue.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var metrics = JsonReceiveMetrics.from(m);
+        switch (outputWriter) {
+            case JsonWriter jsonWriter -> jsonWriter.write(metrics);
+            case PlainTextWriter plainTextWriter -> {
+                for (final var s : metrics.latency()) {
+                    plainTextWriter.println(
+                            "Stage {}: count {}, mean {} ms, p50 {} ms, p90 {} ms, p99 {} ms, p99.9 {} ms, max {} ms",
+                            s.stage(),
+                            s.count(),
+                            s.meanMillis(),
+                            s.p50Millis(),
+                            s.p90Millis(),
+                            s.p99Millis(),
+                            s.p999Millis(),
+                            s.maxMillis());
+                }
+                for (final var h : metrics.handlers()) {
+                    plainTextWriter.println("Handler {}: queued {}, delivered {}, dropped {}, lag {} ms",
+                            h.handler(),
+                            h.queued(),
+                            h.delivered(),
+                            h.dropped(),
+                            h.lagMillis());
+                }
+                plainTextWriter.println("Skipped duplicate envelopes: {}", metrics.duplicateEnvelopes());
+                final var actions = metrics.actions();
+                plainTextWriter.println("Action queue: queued {}, executed {}, merged {}, blocked {}",
+                        actions.queued(),
+                        actions.executed(),
+                        actions.merged(),
+                        actions.blocked());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+public class GetSendMetricsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getSendMetrics";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Show the queue depths and wait times of outgoing messages per priority.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var stats = m.getSendQueueStats();
+        switch (outputWriter) {
+            case JsonWriter jsonWriter -> jsonWriter.write(stats);
+            case PlainTextWriter plainTextWriter -> {
+                for (final var s : stats) {
+                    final var w = s.waitTime();
+                    plainTextWriter.println(
+                            "Priority {}: queued {}, sent {}, rate limited {}, proof required {}, wait mean {} ms, p50 {} ms, p99 {} ms, max {} ms",
+                            s.priority(),
+                            s.queued(),
+                            s.sent(),
+                            s.rateLimited(),
+                            s.proofRequired(),
+                            w.meanMillis(),
+                            w.p50Millis(),
+                            w.p99Millis(),
+                            w.maxMillis());
+                }
+            }
+        }
+    }
+}
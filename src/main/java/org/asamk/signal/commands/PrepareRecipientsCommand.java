@@ -0,0 +1,66 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.json.JsonPrepareRecipientsResult;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.PrepareRecipientsResult;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+import org.asamk.signal.util.CommandUtil;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+public class PrepareRecipientsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "prepareRecipients";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Look up the recipients and establish sessions with them, before sending them a first message.");
+        subparser.addArgument("recipient").help("Specify the recipients' phone number.").nargs("*");
+        subparser.addArgument("-u", "--username").help("Specify the recipient username or username link.").nargs("*");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var recipients = new HashSet<RecipientIdentifier.Single>();
+        recipients.addAll(CommandUtil.getSingleRecipientIdentifiers(ns.getList("recipient"), m.getSelfNumber()));
+        recipients.addAll(CommandUtil.getUsernameIdentifiers(ns.getList("username")));
+        if (recipients.isEmpty()) {
+            throw new UserErrorException("No recipients given");
+        }
+
+        final PrepareRecipientsResult result;
+        try {
+            result = m.prepareRecipients(recipients);
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to prepare recipients: " + e.getMessage() + " (" + e.getClass()
+                    .getSimpleName() + ")", e);
+        }
+        switch (outputWriter) {
+            case JsonWriter writer -> writer.write(JsonPrepareRecipientsResult.from(result));
+            case PlainTextWriter writer -> {
+                for (final var recipient : result.unregistered()) {
+                    writer.println("{}: not registered", recipient.getIdentifier());
+                }
+                writer.println("New sessions: {}, existing sessions: {}, failed: {}",
+                        result.sessionsCreated(),
+                        result.sessionsExisting(),
+                        result.failed());
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
+import org.asamk.signal.util.CommandUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +61,18 @@ public class ReceiveCommand implements LocalCommand, JsonRpcSingleCommand<Receiv
         subparser.addArgument("--send-read-receipts")
                 .help("Send read receipts for all incoming data messages (in addition to the default delivery receipts)")
                 .action(Arguments.storeTrue());
+        subparser.addArgument("--receive-batch-size")
+                .type(int.class)
+                .setDefault(1)
+                .help("Number of envelopes to retrieve from the server, store and acknowledge at once.");
+        subparser.addArgument("--receive-lanes")
+                .type(int.class)
+                .setDefault(1)
+                .help("Number of lanes to handle decrypted messages in parallel, messages of one sender stay in order.");
+        subparser.addArgument("--attachment-download-threads")
+                .type(int.class)
+                .setDefault(ReceiveConfig.DEFAULT_ATTACHMENT_DOWNLOAD_THREADS)
+                .help("Number of attachments to download in parallel.");
     }
 
     @Override
@@ -74,10 +87,7 @@ public class ReceiveCommand implements LocalCommand, JsonRpcSingleCommand<Receiv
         Shutdown.installHandler();
         final var timeout = ns.getDouble("timeout");
         final var maxMessagesRaw = ns.getInt("max-messages");
-        final var ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
-        final var ignoreStories = Boolean.TRUE.equals(ns.getBoolean("ignore-stories"));
-        final var sendReadReceipts = Boolean.TRUE.equals(ns.getBoolean("send-read-receipts"));
-        m.setReceiveConfig(new ReceiveConfig(ignoreAttachments, ignoreStories, sendReadReceipts));
+        m.setReceiveConfig(CommandUtil.getReceiveConfig(ns));
         
         isInterrupted = false;
         sun.misc.Signal.handle(new sun.misc.Signal("INT"),  // SIGINT
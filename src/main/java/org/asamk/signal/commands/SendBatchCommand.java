@@ -0,0 +1,212 @@
+package org.asamk.signal.commands;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.json.JsonBatchSendResult;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.BatchMessage;
+import org.asamk.signal.manager.api.Message;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.SendPriority;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+import org.asamk.signal.util.CommandUtil;
+import org.asamk.signal.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.asamk.signal.util.SendMessageResultUtils.getErrorMessagesFromSendMessageResults;
+import static org.asamk.signal.util.SendMessageResultUtils.printSendMessageResultErrors;
+
+public class SendBatchCommand implements JsonRpcLocalCommand {
+
+    private final BiConsumer<String, JsonBatchSendResult> resultListener;
+
+    public SendBatchCommand() {
+        this(null);
+    }
+
+    /**
+     * @param resultListener if set, receives the sending account and each result as soon as the message has been
+     *                       sent, instead of writing all results at the end
+     */
+    public SendBatchCommand(final BiConsumer<String, JsonBatchSendResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    @Override
+    public String getName() {
+        return "sendBatch";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Send a separate message to each recipient of a batch.");
+        subparser.addArgument("--items-file")
+                .required(true)
+                .help("JSON file with an array of messages, each with a \"recipient\", \"groupId\" or \"username\", "
+                        + "a \"message\" and optional \"attachments\" (use \"-\" for stdin).");
+        subparser.addArgument("-a", "--attachment")
+                .nargs("*")
+                .help("Add an attachment to every message of the batch, it's only uploaded once. "
+                        + "Can be either a file path or a data URI.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var items = getItems(ns);
+        var sharedAttachments = ns.<String>getList("attachment");
+        if (sharedAttachments == null) {
+            sharedAttachments = List.of();
+        }
+        final var batchMessages = new ArrayList<BatchMessage>(items.size());
+        for (var i = 0; i < items.size(); i++) {
+            batchMessages.add(toBatchMessage(i, items.get(i), sharedAttachments, m.getSelfNumber()));
+        }
+
+        final var results = new ArrayList<JsonBatchSendResult>();
+        final var successCount = new AtomicInteger();
+        try {
+            m.sendMessageBatch(batchMessages, SendPriority.BULK, new Manager.BatchSendListener() {
+                @Override
+                public void onSent(final int index, final SendMessageResults sendResults) {
+                    if (sendResults.hasSuccess()) {
+                        successCount.incrementAndGet();
+                    }
+                    if (outputWriter instanceof PlainTextWriter writer && resultListener == null) {
+                        synchronized (writer) {
+                            printSendMessageResultErrors(writer,
+                                    getErrorMessagesFromSendMessageResults(sendResults.results()));
+                            writer.println("{}: {}", index, sendResults.timestamp());
+                        }
+                    } else {
+                        handleResult(m, JsonBatchSendResult.from(index, sendResults), results);
+                    }
+                }
+
+                @Override
+                public void onFailed(final int index, final Exception e) {
+                    final var result = JsonBatchSendResult.from(index, e);
+                    if (outputWriter instanceof PlainTextWriter writer && resultListener == null) {
+                        synchronized (writer) {
+                            writer.println("{}: Failed to send message: {}", index, result.error());
+                        }
+                    } else {
+                        handleResult(m, result, results);
+                    }
+                }
+            });
+        } catch (AttachmentInvalidException | IOException e) {
+            throw new UnexpectedErrorException("Failed to send messages: " + e.getMessage() + " (" + e.getClass()
+                    .getSimpleName() + ")", e);
+        }
+
+        final var failureCount = batchMessages.size() - successCount.get();
+        switch (outputWriter) {
+            case JsonWriter writer -> {
+                if (resultListener != null) {
+                    writer.write(Map.of("sent", successCount.get(), "failed", failureCount));
+                } else {
+                    results.sort(Comparator.comparingInt(JsonBatchSendResult::index));
+                    writer.write(Map.of("results", results));
+                }
+            }
+            case PlainTextWriter writer -> {
+                if (failureCount > 0) {
+                    writer.println("Failed to send {} of {} messages", failureCount, batchMessages.size());
+                }
+            }
+        }
+        if (successCount.get() == 0 && !batchMessages.isEmpty()) {
+            throw new UserErrorException("Failed to send messages");
+        }
+    }
+
+    private void handleResult(
+            final Manager m, final JsonBatchSendResult result, final List<JsonBatchSendResult> results
+    ) {
+        if (resultListener != null) {
+            resultListener.accept(m.getSelfNumber(), result);
+        } else {
+            synchronized (results) {
+                results.add(result);
+            }
+        }
+    }
+
+    private List<BatchItem> getItems(final Namespace ns) throws UserErrorException {
+        final var objectMapper = Util.createJsonObjectMapper();
+        final var itemsFile = ns.getString("items-file");
+        try {
+            if (itemsFile != null) {
+                final var itemsType = new TypeReference<List<BatchItem>>() {};
+                return "-".equals(itemsFile)
+                        ? objectMapper.readValue(System.in, itemsType)
+                        : objectMapper.readValue(new File(itemsFile), itemsType);
+            }
+            final var items = ns.<Object>getList("item");
+            if (items == null) {
+                throw new UserErrorException("No items given");
+            }
+            return objectMapper.convertValue(items, new TypeReference<>() {});
+        } catch (IOException | IllegalArgumentException e) {
+            throw new UserErrorException("Invalid batch items: " + e.getMessage(), e);
+        }
+    }
+
+    private static BatchMessage toBatchMessage(
+            final int index, final BatchItem item, final List<String> sharedAttachments, final String selfNumber
+    ) throws UserErrorException {
+        final RecipientIdentifier recipient;
+        if (item.recipient() != null) {
+            recipient = CommandUtil.getSingleRecipientIdentifier(item.recipient(), selfNumber);
+        } else if (item.groupId() != null) {
+            recipient = new RecipientIdentifier.Group(CommandUtil.getGroupId(item.groupId()));
+        } else if (item.username() != null) {
+            recipient = new RecipientIdentifier.Username(item.username());
+        } else {
+            throw new UserErrorException("No recipient given for item " + index);
+        }
+
+        final var attachments = new ArrayList<>(sharedAttachments);
+        if (item.attachments() != null) {
+            attachments.addAll(item.attachments());
+        }
+        final var messageText = item.message() == null ? "" : item.message();
+        if (messageText.isEmpty() && attachments.isEmpty()) {
+            throw new UserErrorException("Sending empty message is not allowed, item " + index);
+        }
+        return new BatchMessage(recipient,
+                new Message(messageText,
+                        attachments,
+                        List.of(),
+                        Optional.empty(),
+                        Optional.empty(),
+                        List.of(),
+                        Optional.empty(),
+                        List.of()));
+    }
+
+    public record BatchItem(
+            String recipient, String groupId, String username, String message, List<String> attachments
+    ) {}
+}
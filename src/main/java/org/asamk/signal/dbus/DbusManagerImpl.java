@@ -3,8 +3,11 @@ package org.asamk.signal.dbus;
 import org.asamk.Signal;
 import org.asamk.signal.DbusConfig;
 import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.ActionQueueStats;
 import org.asamk.signal.manager.api.AlreadyReceivingException;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.BatchMessage;
+import org.asamk.signal.manager.api.CacheStats;
 import org.asamk.signal.manager.api.CaptchaRequiredException;
 import org.asamk.signal.manager.api.Configuration;
 import org.asamk.signal.manager.api.Contact;
@@ -24,6 +27,7 @@ import org.asamk.signal.manager.api.InvalidDeviceLinkException;
 import org.asamk.signal.manager.api.InvalidStickerException;
 import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
+import org.asamk.signal.manager.api.LatencyStats;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.NonNormalizedPhoneNumberException;
@@ -31,13 +35,17 @@ import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PinLockedException;
+import org.asamk.signal.manager.api.PrepareRecipientsResult;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveHandlerStats;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientAddress;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.SendPriority;
+import org.asamk.signal.manager.api.SendQueueStats;
 import org.asamk.signal.manager.api.StickerPack;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
 import org.asamk.signal.manager.api.StickerPackUrl;
@@ -398,7 +406,7 @@ public class DbusManagerImpl implements Manager {
 
     @Override
     public SendMessageResults sendMessage(
-            final Message message, final Set<RecipientIdentifier> recipients
+            final Message message, final Set<RecipientIdentifier> recipients, final SendPriority priority
     ) throws IOException, AttachmentInvalidException, NotAGroupMemberException, GroupNotFoundException, GroupSendingNotAllowedException {
         return handleMessage(recipients,
                 numbers -> signal.sendMessage(message.messageText(), message.attachments(), numbers),
@@ -406,6 +414,25 @@ public class DbusManagerImpl implements Manager {
                 groupId -> signal.sendGroupMessage(message.messageText(), message.attachments(), groupId));
     }
 
+    @Override
+    public void sendMessageBatch(
+            final List<BatchMessage> messages, final SendPriority priority, final BatchSendListener listener
+    ) {
+        for (var i = 0; i < messages.size(); i++) {
+            final var batchMessage = messages.get(i);
+            try {
+                listener.onSent(i, sendMessage(batchMessage.message(), Set.of(batchMessage.recipient()), priority));
+            } catch (Exception e) {
+                listener.onFailed(i, e);
+            }
+        }
+    }
+
+    @Override
+    public PrepareRecipientsResult prepareRecipients(final Set<RecipientIdentifier.Single> recipients) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public SendMessageResults sendEditMessage(
             final Message message, final Set<RecipientIdentifier> recipients, final long editTargetTimestamp
@@ -743,6 +770,44 @@ public class DbusManagerImpl implements Manager {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<ReceiveHandlerStats> getReceiveHandlerStats() {
+        return List.of();
+    }
+
+    @Override
+    public List<LatencyStats> getReceiveLatencyStats() {
+        return List.of();
+    }
+
+    @Override
+    public long getDuplicateEnvelopeCount() {
+        return 0;
+    }
+
+    @Override
+    public ActionQueueStats getActionQueueStats() {
+        return new ActionQueueStats(0, 0, 0, 0);
+    }
+
+    @Override
+    public List<SendQueueStats> getSendQueueStats() {
+        return List.of();
+    }
+
+    @Override
+    public List<CacheStats> getCacheStats() {
+        return List.of();
+    }
+
+    @Override
+    public void addAttachmentReadyHandler(final AttachmentReadyHandler handler) {
+    }
+
+    @Override
+    public void removeAttachmentReadyHandler(final AttachmentReadyHandler handler) {
+    }
+
     @Override
     public void addAddressChangedListener(final Runnable listener) {
     }
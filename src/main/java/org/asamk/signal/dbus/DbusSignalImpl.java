@@ -4,6 +4,7 @@ import org.asamk.Signal;
 import org.asamk.signal.BaseConfig;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.BatchMessage;
 import org.asamk.signal.manager.api.DeviceLinkUrl;
 import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.GroupInviteLinkUrl;
@@ -26,6 +27,7 @@ import org.asamk.signal.manager.api.RecipientAddress;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendMessageResult;
 import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.SendPriority;
 import org.asamk.signal.manager.api.StickerPackInvalidException;
 import org.asamk.signal.manager.api.TypingAction;
 import org.asamk.signal.manager.api.UnregisteredRecipientException;
@@ -252,6 +254,49 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
         }
     }
 
+    @Override
+    public List<Long> sendBatch(
+            final List<String> recipients, final List<String> messages, final List<String> attachments
+    ) {
+        if (recipients.size() != messages.size()) {
+            throw new Error.Failure("The number of recipients and messages must be the same");
+        }
+        final var selfNumber = m.getSelfNumber();
+        final var batchMessages = new ArrayList<BatchMessage>(recipients.size());
+        for (var i = 0; i < recipients.size(); i++) {
+            batchMessages.add(new BatchMessage(getSingleRecipientIdentifier(recipients.get(i), selfNumber),
+                    new Message(messages.get(i),
+                            attachments,
+                            List.of(),
+                            Optional.empty(),
+                            Optional.empty(),
+                            List.of(),
+                            Optional.empty(),
+                            List.of())));
+        }
+
+        final var timestamps = new Long[recipients.size()];
+        try {
+            m.sendMessageBatch(batchMessages, SendPriority.BULK, new Manager.BatchSendListener() {
+                @Override
+                public void onSent(final int index, final SendMessageResults results) {
+                    timestamps[index] = results.hasSuccess() ? results.timestamp() : 0L;
+                }
+
+                @Override
+                public void onFailed(final int index, final Exception e) {
+                    logger.debug("Failed to send batch message to {}", recipients.get(index), e);
+                    timestamps[index] = 0L;
+                }
+            });
+        } catch (AttachmentInvalidException e) {
+            throw new Error.AttachmentInvalid(e.getMessage());
+        } catch (IOException e) {
+            throw new Error.Failure(e);
+        }
+        return Arrays.asList(timestamps);
+    }
+
     @Override
     public long sendRemoteDeleteMessage(
             final long targetSentTimestamp, final String recipient
@@ -6,6 +6,7 @@ import com.sun.net.httpserver.HttpServer;
 
 import org.asamk.signal.commands.Commands;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
+import org.asamk.signal.json.JsonReceiveMetrics;
 import org.asamk.signal.jsonrpc.JsonRpcReader;
 import org.asamk.signal.jsonrpc.JsonRpcResponse;
 import org.asamk.signal.jsonrpc.JsonRpcSender;
@@ -40,14 +41,14 @@ public class HttpServerHandler implements AutoCloseable {
 
     public HttpServerHandler(final InetSocketAddress address, final Manager m) {
         this.address = address;
-        commandHandler = new SignalJsonRpcCommandHandler(m, Commands::getCommand);
+        commandHandler = new SignalJsonRpcCommandHandler(m, (method, id) -> Commands.getCommand(method));
         this.c = null;
         this.m = m;
     }
 
     public HttpServerHandler(final InetSocketAddress address, final MultiAccountManager c) {
         this.address = address;
-        commandHandler = new SignalJsonRpcCommandHandler(c, Commands::getCommand);
+        commandHandler = new SignalJsonRpcCommandHandler(c, (method, id) -> Commands.getCommand(method));
         this.c = c;
         this.m = null;
     }
@@ -64,6 +65,7 @@ public class HttpServerHandler implements AutoCloseable {
         server.createContext("/api/v1/rpc", this::handleRpcEndpoint);
         server.createContext("/api/v1/events", this::handleEventsEndpoint);
         server.createContext("/api/v1/check", this::handleCheckEndpoint);
+        server.createContext("/api/v1/metrics", this::handleMetricsEndpoint);
 
         server.start();
         logger.info("Started HTTP server on {}", address);
@@ -126,7 +128,10 @@ public class HttpServerHandler implements AutoCloseable {
             });
 
             final var jsonRpcReader = new JsonRpcReader(jsonRpcSender, httpExchange.getRequestBody());
-            jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
+            jsonRpcReader.readMessages((method, params, id) -> commandHandler.handleRequest(objectMapper,
+                            method,
+                            params,
+                            id),
                     response -> logger.debug("Received unexpected response for id {}", response.getId()));
 
             if (result[0] != null) {
@@ -220,6 +225,28 @@ public class HttpServerHandler implements AutoCloseable {
         sendResponse(200, null, httpExchange);
     }
 
+    private void handleMetricsEndpoint(HttpExchange httpExchange) throws IOException {
+        if (!"/api/v1/metrics".equals(httpExchange.getRequestURI().getPath())) {
+            sendResponse(404, null, httpExchange);
+            return;
+        }
+        if (!"GET".equals(httpExchange.getRequestMethod())) {
+            sendResponse(405, null, httpExchange);
+            return;
+        }
+
+        final var queryString = httpExchange.getRequestURI().getQuery();
+        final var query = queryString == null ? Map.<String, String>of() : Util.getQueryMap(queryString);
+
+        final var managers = getManagerFromQuery(query);
+        if (managers == null) {
+            sendResponse(400, null, httpExchange);
+            return;
+        }
+
+        sendResponse(200, managers.stream().map(JsonReceiveMetrics::from).toList(), httpExchange);
+    }
+
     private List<Manager> getManagerFromQuery(final Map<String, String> query) {
         if (m != null) {
             return List.of(m);
@@ -0,0 +1,17 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import org.asamk.signal.manager.api.AttachmentReady;
+
+public record JsonAttachmentReady(
+        String account, String id, @JsonInclude(JsonInclude.Include.NON_NULL) String file, boolean downloaded
+) {
+
+    public static JsonAttachmentReady from(String account, AttachmentReady attachmentReady) {
+        return new JsonAttachmentReady(account,
+                attachmentReady.id(),
+                attachmentReady.downloaded() ? attachmentReady.file().getAbsolutePath() : null,
+                attachmentReady.downloaded());
+    }
+}
@@ -0,0 +1,31 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import org.asamk.signal.manager.api.SendMessageResults;
+import org.asamk.signal.manager.api.UnregisteredRecipientException;
+import org.asamk.signal.util.SendMessageResultUtils;
+
+import java.util.List;
+
+public record JsonBatchSendResult(
+        int index,
+        @JsonInclude(JsonInclude.Include.NON_NULL) Long timestamp,
+        @JsonInclude(JsonInclude.Include.NON_NULL) List<JsonSendMessageResult> results,
+        @JsonInclude(JsonInclude.Include.NON_NULL) String error
+) {
+
+    public static JsonBatchSendResult from(int index, SendMessageResults results) {
+        return new JsonBatchSendResult(index,
+                results.timestamp(),
+                SendMessageResultUtils.getJsonSendMessageResults(results.results()),
+                null);
+    }
+
+    public static JsonBatchSendResult from(int index, Exception e) {
+        final var error = e instanceof UnregisteredRecipientException u
+                ? "The user " + u.getSender().getIdentifier() + " is not registered."
+                : e.getMessage() + " (" + e.getClass().getSimpleName() + ")";
+        return new JsonBatchSendResult(index, null, null, error);
+    }
+}
@@ -0,0 +1,18 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.manager.api.PrepareRecipientsResult;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+
+import java.util.List;
+
+public record JsonPrepareRecipientsResult(
+        List<String> unregistered, int sessionsCreated, int sessionsExisting, int failed
+) {
+
+    public static JsonPrepareRecipientsResult from(PrepareRecipientsResult result) {
+        return new JsonPrepareRecipientsResult(result.unregistered()
+                .stream()
+                .map(RecipientIdentifier.Single::getIdentifier)
+                .toList(), result.sessionsCreated(), result.sessionsExisting(), result.failed());
+    }
+}
@@ -0,0 +1,25 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.ActionQueueStats;
+import org.asamk.signal.manager.api.LatencyStats;
+import org.asamk.signal.manager.api.ReceiveHandlerStats;
+
+import java.util.List;
+
+public record JsonReceiveMetrics(
+        String account,
+        List<LatencyStats> latency,
+        List<ReceiveHandlerStats> handlers,
+        long duplicateEnvelopes,
+        ActionQueueStats actions
+) {
+
+    public static JsonReceiveMetrics from(Manager m) {
+        return new JsonReceiveMetrics(m.getSelfNumber(),
+                m.getReceiveLatencyStats(),
+                m.getReceiveHandlerStats(),
+                m.getDuplicateEnvelopeCount(),
+                m.getActionQueueStats());
+    }
+}
@@ -131,7 +131,7 @@ public class JsonRpcReader {
 
     private JsonRpcResponse handleRequest(final RequestHandler requestHandler, final JsonRpcRequest request) {
         try {
-            final var result = requestHandler.apply(request.getMethod(), request.getParams());
+            final var result = requestHandler.apply(request.getMethod(), request.getParams(), request.getId());
             if (request.getId() != null) {
                 return JsonRpcResponse.forSuccess(result, request.getId());
             } else {
@@ -287,6 +287,6 @@ public class JsonRpcReader {
 
     public interface RequestHandler {
 
-        JsonNode apply(String method, ContainerNode<?> params) throws JsonRpcException;
+        JsonNode apply(String method, ContainerNode<?> params, ValueNode id) throws JsonRpcException;
     }
 }
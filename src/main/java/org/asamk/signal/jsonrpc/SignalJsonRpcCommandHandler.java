@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
 
 import org.asamk.signal.commands.Command;
 import org.asamk.signal.commands.JsonRpcMultiCommand;
@@ -28,7 +29,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 public class SignalJsonRpcCommandHandler {
 
@@ -41,24 +42,31 @@ public class SignalJsonRpcCommandHandler {
 
     private final Manager m;
     private final MultiAccountManager c;
-    private final Function<String, Command> commandProvider;
-
-    public SignalJsonRpcCommandHandler(final Manager m, final Function<String, Command> commandProvider) {
+    private final BiFunction<String, ValueNode, Command> commandProvider;
+
+    /**
+     * @param commandProvider returns the command for a method and the id of the request
+     */
+    public SignalJsonRpcCommandHandler(
+            final Manager m, final BiFunction<String, ValueNode, Command> commandProvider
+    ) {
         this.c = null;
         this.m = m;
         this.commandProvider = commandProvider;
     }
 
-    public SignalJsonRpcCommandHandler(final MultiAccountManager c, final Function<String, Command> commandProvider) {
+    public SignalJsonRpcCommandHandler(
+            final MultiAccountManager c, final BiFunction<String, ValueNode, Command> commandProvider
+    ) {
         this.c = c;
         this.m = null;
         this.commandProvider = commandProvider;
     }
 
     public JsonNode handleRequest(
-            final ObjectMapper objectMapper, final String method, ContainerNode<?> params
+            final ObjectMapper objectMapper, final String method, ContainerNode<?> params, final ValueNode id
     ) throws JsonRpcException {
-        var command = getCommand(method);
+        var command = getCommand(method, id);
         if (c != null) {
             if (command instanceof JsonRpcSingleCommand<?> jsonRpcCommand) {
                 final var manager = getManagerFromParams(params);
@@ -142,8 +150,8 @@ public class SignalJsonRpcCommandHandler {
         return null;
     }
 
-    private Command getCommand(final String method) {
-        return commandProvider.apply(method);
+    private Command getCommand(final String method, final ValueNode id) {
+        return commandProvider.apply(method, id);
     }
 
     private record CommandRunnerImpl<T>(Manager m, JsonRpcSingleCommand<T> command) implements CommandRunner<T> {
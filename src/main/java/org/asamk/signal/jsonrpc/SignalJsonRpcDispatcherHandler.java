@@ -7,13 +7,16 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
 
 import org.asamk.signal.commands.Command;
 import org.asamk.signal.commands.Commands;
 import org.asamk.signal.commands.JsonRpcMultiCommand;
 import org.asamk.signal.commands.JsonRpcSingleCommand;
+import org.asamk.signal.commands.SendBatchCommand;
 import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.json.JsonAttachmentReady;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
@@ -40,6 +43,7 @@ public class SignalJsonRpcDispatcherHandler {
     private final boolean noReceiveOnStart;
 
     private final Map<Integer, List<Pair<Manager, Manager.ReceiveMessageHandler>>> receiveHandlers = new HashMap<>();
+    private final Map<Integer, List<Pair<Manager, Manager.AttachmentReadyHandler>>> attachmentReadyHandlers = new HashMap<>();
     private SignalJsonRpcCommandHandler commandHandler;
 
     public SignalJsonRpcDispatcherHandler(
@@ -85,34 +89,53 @@ public class SignalJsonRpcDispatcherHandler {
     private int subscribeReceive(final List<Manager> managers, boolean internalSubscription) {
         final var subscriptionId = nextSubscriptionId.getAndIncrement();
         final var handlers = managers.stream().map(m -> {
-            final var receiveMessageHandler = new JsonReceiveMessageHandler(m, s -> {
-                ContainerNode<?> params;
-                if (internalSubscription) {
-                    params = objectMapper.valueToTree(s);
-                } else {
-                    final var paramsNode = new ObjectNode(objectMapper.getNodeFactory());
-                    paramsNode.set("subscription", IntNode.valueOf(subscriptionId));
-                    paramsNode.set("result", objectMapper.valueToTree(s));
-                    params = paramsNode;
-                }
-                final var jsonRpcRequest = JsonRpcRequest.forNotification("receive", params, null);
-                try {
-                    jsonRpcSender.sendRequest(jsonRpcRequest);
-                } catch (AssertionError e) {
-                    if (e.getCause() instanceof ClosedChannelException) {
-                        unsubscribeReceive(subscriptionId);
-                    }
-                }
-            });
+            final var receiveMessageHandler = new JsonReceiveMessageHandler(m,
+                    s -> sendNotification("receive", s, subscriptionId, internalSubscription));
             m.addReceiveHandler(receiveMessageHandler);
             return new Pair<>(m, (Manager.ReceiveMessageHandler) receiveMessageHandler);
         }).toList();
         receiveHandlers.put(subscriptionId, handlers);
 
+        final var readyHandlers = managers.stream().map(m -> {
+            final Manager.AttachmentReadyHandler attachmentReadyHandler = attachmentReady -> {
+                final var result = JsonAttachmentReady.from(m.getSelfNumber(), attachmentReady);
+                sendNotification("attachmentReady", result, subscriptionId, internalSubscription);
+            };
+            m.addAttachmentReadyHandler(attachmentReadyHandler);
+            return new Pair<>(m, attachmentReadyHandler);
+        }).toList();
+        attachmentReadyHandlers.put(subscriptionId, readyHandlers);
+
         return subscriptionId;
     }
 
+    private void sendNotification(
+            final String method, final Object result, final int subscriptionId, final boolean internalSubscription
+    ) {
+        ContainerNode<?> params;
+        if (internalSubscription) {
+            params = objectMapper.valueToTree(result);
+        } else {
+            final var paramsNode = new ObjectNode(objectMapper.getNodeFactory());
+            paramsNode.set("subscription", IntNode.valueOf(subscriptionId));
+            paramsNode.set("result", objectMapper.valueToTree(result));
+            params = paramsNode;
+        }
+        final var jsonRpcRequest = JsonRpcRequest.forNotification(method, params, null);
+        try {
+            jsonRpcSender.sendRequest(jsonRpcRequest);
+        } catch (AssertionError e) {
+            if (e.getCause() instanceof ClosedChannelException) {
+                unsubscribeReceive(subscriptionId);
+            }
+        }
+    }
+
     private boolean unsubscribeReceive(final int subscriptionId) {
+        final var readyHandlers = attachmentReadyHandlers.remove(subscriptionId);
+        if (readyHandlers != null) {
+            readyHandlers.forEach(this::unsubscribeAttachmentReadyHandler);
+        }
         final var handlers = receiveHandlers.remove(subscriptionId);
         if (handlers == null) {
             return false;
@@ -134,11 +157,17 @@ public class SignalJsonRpcDispatcherHandler {
 
     private void handleConnection() {
         try {
-            jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
+            jsonRpcReader.readMessages((method, params, id) -> commandHandler.handleRequest(objectMapper,
+                            method,
+                            params,
+                            id),
                     response -> logger.debug("Received unexpected response for id {}", response.getId()));
         } finally {
             receiveHandlers.forEach((_subscriptionId, handlers) -> handlers.forEach(this::unsubscribeReceiveHandler));
             receiveHandlers.clear();
+            attachmentReadyHandlers.forEach((_subscriptionId, handlers) -> handlers.forEach(
+                    this::unsubscribeAttachmentReadyHandler));
+            attachmentReadyHandlers.clear();
         }
     }
 
@@ -148,13 +177,28 @@ public class SignalJsonRpcDispatcherHandler {
         m.removeReceiveHandler(handler);
     }
 
-    private Command getCommand(final String method) {
+    private void unsubscribeAttachmentReadyHandler(final Pair<Manager, Manager.AttachmentReadyHandler> pair) {
+        pair.first().removeAttachmentReadyHandler(pair.second());
+    }
+
+    private Command getCommand(final String method, final ValueNode id) {
         if ("subscribeReceive".equals(method)) {
             return new SubscribeReceiveCommand();
         }
         if ("unsubscribeReceive".equals(method)) {
             return new UnsubscribeReceiveCommand();
         }
+        if ("sendBatch".equals(method)) {
+            // Stream the result of each message as a notification, while the batch is still being sent.
+            // The request id and account allow clients to match the results of concurrent batches.
+            return new SendBatchCommand((account, result) -> {
+                final var params = objectMapper.createObjectNode();
+                params.set("requestId", id);
+                params.put("account", account);
+                params.setAll((ObjectNode) objectMapper.valueToTree(result));
+                jsonRpcSender.sendRequest(JsonRpcRequest.forNotification("sendBatchResult", params, null));
+            });
+        }
         return Commands.getCommand(method);
     }
 
@@ -19,6 +19,7 @@ import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.AttachmentInvalidException;
 import org.asamk.signal.manager.api.Message;
+import org.asamk.signal.manager.api.SendPriority;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.util.CommandUtil;
 import org.quartz.Job;
@@ -105,7 +106,7 @@ public class SendImagesJob implements Job {
                     Optional.ofNullable(null),
                     List.of());
             logger.info("Sending message...");
-            var results = m.sendMessage(message, recipientIdentifiers);
+            var results = m.sendMessage(message, recipientIdentifiers, SendPriority.BULK);
             logger.info("Message sent...");
             outputResult(outputWriter, results);
             logger.info("Deleting the file " + filePath);
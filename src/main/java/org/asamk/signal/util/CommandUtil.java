@@ -2,11 +2,13 @@ package org.asamk.signal.util;
 
 import net.sourceforge.argparse4j.inf.Namespace;
 
+import org.asamk.signal.HandlerOverflowPolicyCli;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.CaptchaRequiredException;
 import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.GroupIdFormatException;
+import org.asamk.signal.manager.api.HandlerOverflowPolicy;
 import org.asamk.signal.manager.api.InvalidNumberException;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
@@ -145,7 +147,28 @@ public class CommandUtil {
         final var ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
         final var ignoreStories = Boolean.TRUE.equals(ns.getBoolean("ignore-stories"));
         final var sendReadReceipts = Boolean.TRUE.equals(ns.getBoolean("send-read-receipts"));
-
-        return new ReceiveConfig(ignoreAttachments, ignoreStories, sendReadReceipts);
+        final var batchSize = ns.getInt("receive-batch-size");
+        final var receiveLanes = ns.getInt("receive-lanes");
+        final var attachmentDownloadThreads = ns.getInt("attachment-download-threads");
+        final var deferAttachmentDownloads = Boolean.TRUE.equals(ns.getBoolean("defer-attachment-downloads"));
+        final var handlerQueueSize = ns.getInt("receive-handler-queue-size");
+        final var handlerOverflowCli = ns.<HandlerOverflowPolicyCli>get("receive-handler-overflow");
+        final var handlerOverflowPolicy = handlerOverflowCli == HandlerOverflowPolicyCli.DROP_OLDEST
+                ? HandlerOverflowPolicy.DROP_OLDEST
+                : handlerOverflowCli == HandlerOverflowPolicyCli.DISCONNECT
+                        ? HandlerOverflowPolicy.DISCONNECT
+                        : HandlerOverflowPolicy.BLOCK;
+
+        return new ReceiveConfig(ignoreAttachments,
+                ignoreStories,
+                sendReadReceipts,
+                batchSize == null ? 1 : batchSize,
+                receiveLanes == null ? 1 : receiveLanes,
+                attachmentDownloadThreads == null
+                        ? ReceiveConfig.DEFAULT_ATTACHMENT_DOWNLOAD_THREADS
+                        : attachmentDownloadThreads,
+                deferAttachmentDownloads,
+                handlerQueueSize == null ? 1000 : handlerQueueSize,
+                handlerOverflowPolicy);
     }
 }